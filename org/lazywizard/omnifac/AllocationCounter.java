@@ -0,0 +1,63 @@
+package org.lazywizard.omnifac;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Reports how many bytes the current thread has allocated, on JVMs that can
+ * count them (HotSpot). Everything that refers to com.sun.management is kept
+ * in a nested class that is only loaded once that package is known to exist,
+ * so other JVMs just report the counter as unsupported.
+ *
+ * @author LazyWizard
+ */
+class AllocationCounter
+{
+    private static final boolean SUPPORTED = checkSupported();
+
+    private static boolean checkSupported()
+    {
+        try
+        {
+            Class.forName("com.sun.management.ThreadMXBean");
+            return HotSpot.isEnabled();
+        }
+        catch (ClassNotFoundException | LinkageError ex)
+        {
+            return false;
+        }
+    }
+
+    static boolean isSupported()
+    {
+        return SUPPORTED;
+    }
+
+    // Only valid if isSupported() returned true
+    static long getAllocatedBytes()
+    {
+        return HotSpot.THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static class HotSpot
+    {
+        private static final com.sun.management.ThreadMXBean THREADS = getThreads();
+
+        private static com.sun.management.ThreadMXBean getThreads()
+        {
+            final ThreadMXBean tmp = ManagementFactory.getThreadMXBean();
+            return (tmp instanceof com.sun.management.ThreadMXBean
+                    ? (com.sun.management.ThreadMXBean) tmp : null);
+        }
+
+        private static boolean isEnabled()
+        {
+            return (THREADS != null && THREADS.isThreadAllocatedMemorySupported()
+                    && THREADS.isThreadAllocatedMemoryEnabled());
+        }
+    }
+
+    private AllocationCounter()
+    {
+    }
+}
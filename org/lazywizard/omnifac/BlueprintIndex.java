@@ -0,0 +1,77 @@
+package org.lazywizard.omnifac;
+
+import java.util.List;
+import com.fs.starfarer.api.combat.ShipAPI.HullSize;
+import com.fs.starfarer.api.combat.WeaponAPI.WeaponSize;
+
+/**
+ * Sorted, category-partitioned lists of the blueprint ids known by a single
+ * Omnifactory. Kept up to date as blueprints are added or removed, so reads
+ * never need to filter or sort the full catalog. Every write publishes a new
+ * {@link CatalogSnapshot}, so readers on other threads never see a partially
+ * applied change.
+ *
+ * @author LazyWizard
+ */
+class BlueprintIndex
+{
+    private volatile CatalogSnapshot current;
+
+    // Starts from the catalog's version, so a rebuilt index never reports an
+    // older version than the snapshots handed out before it, even if empty
+    BlueprintIndex(int version)
+    {
+        current = new CatalogSnapshot(version);
+    }
+
+    void addShip(int version, String id, HullSize size)
+    {
+        current = current.withShip(version, id, size, true);
+    }
+
+    void removeShip(int version, String id, HullSize size)
+    {
+        current = current.withShip(version, id, size, false);
+    }
+
+    // Size can be null for blueprints whose spec is no longer loaded
+    void addWeapon(int version, String id, WeaponSize size)
+    {
+        current = current.withWeapon(version, id, size, true);
+    }
+
+    void removeWeapon(int version, String id, WeaponSize size)
+    {
+        current = current.withWeapon(version, id, size, false);
+    }
+
+    CatalogSnapshot getSnapshot()
+    {
+        return current;
+    }
+
+    List<String> getShips()
+    {
+        return current.getShips();
+    }
+
+    List<String> getShips(HullSize size)
+    {
+        return current.getShips(size);
+    }
+
+    List<String> getWings()
+    {
+        return current.getWings();
+    }
+
+    List<String> getWeapons()
+    {
+        return current.getWeapons();
+    }
+
+    List<String> getWeapons(WeaponSize size)
+    {
+        return current.getWeapons(size);
+    }
+}
@@ -0,0 +1,104 @@
+package org.lazywizard.omnifac;
+
+import java.util.HashMap;
+import java.util.Map;
+import com.fs.starfarer.api.Global;
+import com.fs.starfarer.api.combat.WeaponAPI.WeaponSize;
+import com.fs.starfarer.api.fleet.FleetMemberType;
+
+/**
+ * What a blueprint is and whether it has been analyzed, kept apart from any
+ * one factory's production state. Normally every factory owns its own
+ * definitions. With "networkedFactories" enabled all factories share the
+ * single library stored in the sector's persistent data: a blueprint sold
+ * to one factory is learned by all of them, and is only analyzed once.
+ *
+ * @author LazyWizard
+ */
+class BlueprintLibrary
+{
+    final Map<String, ShipDefinition> ships = new HashMap<>();
+    final Map<String, WeaponDefinition> weapons = new HashMap<>();
+
+    static BlueprintLibrary getNetworkLibrary()
+    {
+        final Map<String, Object> data = Global.getSector().getPersistentData();
+        BlueprintLibrary library = (BlueprintLibrary) data.get(Constants.LIBRARY_DATA_ID);
+        if (library == null)
+        {
+            library = new BlueprintLibrary();
+            data.put(Constants.LIBRARY_DATA_ID, library);
+        }
+
+        return library;
+    }
+
+    static boolean hasNetworkLibrary()
+    {
+        return Global.getSector().getPersistentData().containsKey(Constants.LIBRARY_DATA_ID);
+    }
+
+    static void removeNetworkLibrary()
+    {
+        Global.getSector().getPersistentData().remove(Constants.LIBRARY_DATA_ID);
+    }
+
+    // What every kind of definition has in common
+    abstract static class Definition
+    {
+        final String id, displayName;
+        boolean isAnalyzed;
+
+        Definition(String id, String displayName, boolean isAnalyzed)
+        {
+            this.id = id;
+            this.displayName = displayName;
+            this.isAnalyzed = isAnalyzed;
+        }
+    }
+
+    static class ShipDefinition extends Definition
+    {
+        final FleetMemberType type;
+        final int fp, size;
+
+        ShipDefinition(String id, String displayName, FleetMemberType type,
+                int fp, int size, boolean isAnalyzed)
+        {
+            super(id, displayName, isAnalyzed);
+            this.type = type;
+            this.fp = fp;
+            this.size = size;
+        }
+
+        ShipDefinition copy()
+        {
+            return new ShipDefinition(id, displayName, type, fp, size, isAnalyzed);
+        }
+    }
+
+    static class WeaponDefinition extends Definition
+    {
+        final float cargoSpace;
+        final int stackSize;
+        // Either can be null for blueprints from older saves, resolved on use
+        WeaponSize weaponSize;
+        Integer tier;
+
+        WeaponDefinition(String id, String displayName, WeaponSize weaponSize,
+                Integer tier, float cargoSpace, int stackSize, boolean isAnalyzed)
+        {
+            super(id, displayName, isAnalyzed);
+            this.weaponSize = weaponSize;
+            this.tier = tier;
+            this.cargoSpace = cargoSpace;
+            this.stackSize = stackSize;
+        }
+
+        WeaponDefinition copy()
+        {
+            return new WeaponDefinition(id, displayName, weaponSize, tier,
+                    cargoSpace, stackSize, isAnalyzed);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package org.lazywizard.omnifac;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import com.fs.starfarer.api.combat.ShipAPI.HullSize;
+import com.fs.starfarer.api.combat.WeaponAPI.WeaponSize;
+import org.lazywizard.omnifac.OmniFac.BlueprintCategory;
+import org.lazywizard.omnifac.OmniFac.BlueprintData;
+import org.lazywizard.omnifac.OmniFac.BlueprintState;
+
+/**
+ * A filtered, read-only view of an Omnifactory's blueprints, created through
+ * {@link OmniFac#query()}. Criteria are combined with AND. Results are
+ * produced lazily from the factory's indexes, so neither iterating nor
+ * counting copies the catalog. A query is a live view: iterating it again
+ * after the factory has changed will reflect those changes.
+ *
+ * @author LazyWizard
+ */
+public class BlueprintQuery implements Iterable<BlueprintData>
+{
+    private final OmniFac factory;
+    private BlueprintState state = null;
+    private BlueprintCategory category = null;
+    private HullSize hullSize = null;
+    private WeaponSize weaponSize = null;
+    private int dueWithin = -1;
+
+    BlueprintQuery(OmniFac factory)
+    {
+        this.factory = factory;
+    }
+
+    public BlueprintQuery inState(BlueprintState state)
+    {
+        this.state = state;
+        return this;
+    }
+
+    public BlueprintQuery ofCategory(BlueprintCategory category)
+    {
+        this.category = category;
+        return this;
+    }
+
+    public BlueprintQuery withHullSize(HullSize hullSize)
+    {
+        this.hullSize = hullSize;
+        return this;
+    }
+
+    public BlueprintQuery withWeaponSize(WeaponSize weaponSize)
+    {
+        this.weaponSize = weaponSize;
+        return this;
+    }
+
+    /**
+     * Only match blueprints that will finish analysis or attempt production
+     * within the given number of factory days.
+     */
+    public BlueprintQuery dueWithin(int days)
+    {
+        this.dueWithin = Math.max(0, days);
+        return this;
+    }
+
+    public boolean matches(BlueprintData data)
+    {
+        if (state != null && data.getState() != state)
+        {
+            return false;
+        }
+
+        if (category != null && data.getCategory() != category)
+        {
+            return false;
+        }
+
+        if (hullSize != null && data.getHullSize() != hullSize)
+        {
+            return false;
+        }
+
+        if (weaponSize != null && data.getWeaponSize() != weaponSize)
+        {
+            return false;
+        }
+
+        return (dueWithin < 0 || StateIndex.getDueDay(data)
+                <= factory.getCurrentDay() + dueWithin);
+    }
+
+    @Override
+    public Iterator<BlueprintData> iterator()
+    {
+        return new FilteredIterator(getSource());
+    }
+
+    /**
+     * Counts matching blueprints. If only a single indexed criterion is set
+     * this is constant time, otherwise the smallest index is walked.
+     */
+    public int count()
+    {
+        final List<String> ids = getIndexedIds();
+        if (state == null && dueWithin < 0)
+        {
+            return (ids == null ? factory.getNumBlueprints() : ids.size());
+        }
+
+        if (ids == null && dueWithin < 0)
+        {
+            return factory.getStateIndex().getInState(state).size();
+        }
+
+        int count = 0;
+        for (Iterator<BlueprintData> iter = iterator(); iter.hasNext(); iter.next())
+        {
+            count++;
+        }
+
+        return count;
+    }
+
+    public boolean isEmpty()
+    {
+        return !iterator().hasNext();
+    }
+
+    // Picks the narrowest index that covers this query
+    private Iterator<BlueprintData> getSource()
+    {
+        final List<String> ids = getIndexedIds();
+        final Collection<BlueprintData> inState = (state == null ? null
+                : factory.getStateIndex().getInState(state));
+        if (ids != null && (inState == null || ids.size() <= inState.size()))
+        {
+            return new LookupIterator(ids.iterator(), isWeaponList());
+        }
+
+        if (inState != null)
+        {
+            return inState.iterator();
+        }
+
+        if (dueWithin >= 0)
+        {
+            return factory.getStateIndex().getDueBy(factory.getCurrentDay() + dueWithin);
+        }
+
+        return factory.getAllBlueprints();
+    }
+
+    private boolean isWeaponList()
+    {
+        return (weaponSize != null || category == BlueprintCategory.WEAPON);
+    }
+
+    // Returns null if no category or size criteria were given
+    private List<String> getIndexedIds()
+    {
+        final BlueprintIndex index = factory.getIndex();
+        if (weaponSize != null)
+        {
+            if (hullSize != null || (category != null && category != BlueprintCategory.WEAPON))
+            {
+                return Collections.<String>emptyList();
+            }
+
+            return index.getWeapons(weaponSize);
+        }
+
+        if (hullSize != null)
+        {
+            if (category == BlueprintCategory.WEAPON
+                    || (category == BlueprintCategory.SHIP && hullSize == HullSize.FIGHTER)
+                    || (category == BlueprintCategory.WING && hullSize != HullSize.FIGHTER))
+            {
+                return Collections.<String>emptyList();
+            }
+
+            return index.getShips(hullSize);
+        }
+
+        if (category != null)
+        {
+            switch (category)
+            {
+                case SHIP:
+                    return index.getShips();
+                case WING:
+                    return index.getWings();
+                default:
+                    return index.getWeapons();
+            }
+        }
+
+        return null;
+    }
+
+    private class LookupIterator implements Iterator<BlueprintData>
+    {
+        private final Iterator<String> ids;
+        private final boolean weapons;
+
+        private LookupIterator(Iterator<String> ids, boolean weapons)
+        {
+            this.ids = ids;
+            this.weapons = weapons;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return ids.hasNext();
+        }
+
+        @Override
+        public BlueprintData next()
+        {
+            final String id = ids.next();
+            return (weapons ? factory.getWeaponBlueprint(id) : factory.getShipBlueprint(id));
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private class FilteredIterator implements Iterator<BlueprintData>
+    {
+        private final Iterator<BlueprintData> source;
+        private BlueprintData next = null;
+
+        private FilteredIterator(Iterator<BlueprintData> source)
+        {
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while (next == null && source.hasNext())
+            {
+                final BlueprintData tmp = source.next();
+                if (matches(tmp))
+                {
+                    next = tmp;
+                }
+            }
+
+            return (next != null);
+        }
+
+        @Override
+        public BlueprintData next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+
+            final BlueprintData tmp = next;
+            next = null;
+            return tmp;
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.lazywizard.omnifac;
+
+import java.util.List;
+import com.fs.starfarer.api.combat.ShipAPI.HullSize;
+import com.fs.starfarer.api.combat.WeaponAPI.WeaponSize;
+
+/**
+ * An immutable view of the blueprints an Omnifactory knew at one point in
+ * time, returned by {@link OmniFac#getCatalog()}. Snapshots are safe to read
+ * from any thread and never change, so there is no need to copy the lists
+ * they return. Each change to the catalog publishes a new snapshot that
+ * shares everything that didn't change with the one before it.
+ * <p>
+ * The version increases every time blueprints are learned or forgotten, so
+ * anything derived from a snapshot only needs to be rebuilt when
+ * {@link #getVersion()} differs from the version it was built from.
+ *
+ * @author LazyWizard
+ */
+public class CatalogSnapshot
+{
+    private final int version;
+    private final SortedIdList ships, wings, weapons;
+    private final SortedIdList[] shipsBySize, weaponsBySize;
+
+    // An empty catalog, ie one whose blueprints have all been forgotten
+    CatalogSnapshot(int version)
+    {
+        this.version = version;
+        ships = wings = weapons = SortedIdList.EMPTY;
+        shipsBySize = new SortedIdList[HullSize.values().length];
+        weaponsBySize = new SortedIdList[WeaponSize.values().length];
+        for (int x = 0; x < shipsBySize.length; x++)
+        {
+            shipsBySize[x] = SortedIdList.EMPTY;
+        }
+
+        for (int x = 0; x < weaponsBySize.length; x++)
+        {
+            weaponsBySize[x] = SortedIdList.EMPTY;
+        }
+    }
+
+    private CatalogSnapshot(int version, SortedIdList ships, SortedIdList wings,
+            SortedIdList weapons, SortedIdList[] shipsBySize, SortedIdList[] weaponsBySize)
+    {
+        this.version = version;
+        this.ships = ships;
+        this.wings = wings;
+        this.weapons = weapons;
+        this.shipsBySize = shipsBySize;
+        this.weaponsBySize = weaponsBySize;
+    }
+
+    CatalogSnapshot withShip(int version, String id, HullSize size, boolean isKnown)
+    {
+        final boolean isWing = (size == HullSize.FIGHTER);
+        final SortedIdList list = (isWing ? wings : ships);
+        final SortedIdList changed = (isKnown ? list.with(id) : list.without(id));
+        final SortedIdList[] bySize = shipsBySize.clone();
+        bySize[size.ordinal()] = (isKnown ? bySize[size.ordinal()].with(id)
+                : bySize[size.ordinal()].without(id));
+        return new CatalogSnapshot(version, (isWing ? ships : changed),
+                (isWing ? changed : wings), weapons, bySize, weaponsBySize);
+    }
+
+    // Size can be null for blueprints whose spec is no longer loaded
+    CatalogSnapshot withWeapon(int version, String id, WeaponSize size, boolean isKnown)
+    {
+        SortedIdList[] bySize = weaponsBySize;
+        if (size != null)
+        {
+            bySize = weaponsBySize.clone();
+            bySize[size.ordinal()] = (isKnown ? bySize[size.ordinal()].with(id)
+                    : bySize[size.ordinal()].without(id));
+        }
+
+        return new CatalogSnapshot(version, ships, wings,
+                (isKnown ? weapons.with(id) : weapons.without(id)), shipsBySize, bySize);
+    }
+
+    public int getVersion()
+    {
+        return version;
+    }
+
+    public int size()
+    {
+        return ships.size() + wings.size() + weapons.size();
+    }
+
+    /** Returns a sorted, immutable list of known ship hull ids. */
+    public List<String> getShips()
+    {
+        return ships;
+    }
+
+    public List<String> getShips(HullSize size)
+    {
+        return shipsBySize[size.ordinal()];
+    }
+
+    /** Returns a sorted, immutable list of known fighter wing ids. */
+    public List<String> getWings()
+    {
+        return wings;
+    }
+
+    /** Returns a sorted, immutable list of known weapon ids. */
+    public List<String> getWeapons()
+    {
+        return weapons;
+    }
+
+    public List<String> getWeapons(WeaponSize size)
+    {
+        return weaponsBySize[size.ordinal()];
+    }
+}
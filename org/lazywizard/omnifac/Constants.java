@@ -6,11 +6,26 @@ class Constants
     static final String SETTINGS_FILE = "data/config/omnifactory/omnifac_settings.json";
     static final String RESTRICTED_WEAPONS_CSV = "data/config/omnifactory/restricted_weapons.csv";
     static final String RESTRICTED_SHIPS_CSV = "data/config/omnifactory/restricted_ships.csv";
+    static final String PRODUCTION_LIMITS_CSV = "data/config/omnifactory/production_limits.csv";
     static final String FACTORY_DATA_ID = "lw_omnifac_allfactories";
+    static final String LISTENERS_DATA_ID = "lw_omnifac_listeners";
+    static final String LIBRARY_DATA_ID = "lw_omnifac_library";
     static final String STATION_ID = "omnifac";
     static final String STATION_NAME = "Omnifactory";
     static final String STATION_FACTION = "player";
     static final String SUBMARKET_ID = "omnifac_market";
+    static final String RECORDING_DIR = "omnifactory/recordings/";
+    static final String RECORDING_EXTENSION = ".ofrec";
+    static final String METRICS_DIR = "omnifactory/metrics/";
+    static final String METRICS_CSV_FILE = "omnifac_metrics.csv";
+    static final String METRICS_PROMETHEUS_FILE = "omnifac_metrics.prom";
+    static final String LIBRARY_DIR = "omnifactory/libraries/";
+    static final String LIBRARY_EXTENSION = ".oflib";
+    static final String CACHE_DIR = "omnifactory/cache/";
+    static final String SETTINGS_CACHE_FILE = "settings.cache";
+    // Relative to the game's working directory
+    static final String MODS_DIR = "../mods/";
+    static final String ENABLED_MODS_FILE = "enabled_mods.json";
 
     private Constants()
     {
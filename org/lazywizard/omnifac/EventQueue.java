@@ -0,0 +1,63 @@
+package org.lazywizard.omnifac;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import org.lazywizard.omnifac.OmniFac.BlueprintData;
+import org.lazywizard.omnifac.ProductionEvent.EventType;
+
+/**
+ * Collects a factory's events during a heartbeat so they can be delivered to
+ * listeners in one batch. Event objects are pooled and reused between
+ * heartbeats, so a busy factory doesn't allocate once the pool has grown.
+ * <p>
+ * Listeners are handed the queue itself, so every inherited mutator is left
+ * to throw UnsupportedOperationException; only the factory can add to or
+ * reset it.
+ *
+ * @author LazyWizard
+ */
+class EventQueue extends AbstractList<ProductionEvent>
+{
+    private final List<ProductionEvent> pool = new ArrayList<>();
+    private int size = 0;
+
+    void add(EventType type, BlueprintData blueprint, int day)
+    {
+        if (size == pool.size())
+        {
+            pool.add(new ProductionEvent());
+        }
+
+        pool.get(size++).set(type, blueprint, day);
+    }
+
+    // Not clear(), which listeners could call to wipe the batch for the rest
+    void reset()
+    {
+        // Don't keep forgotten blueprints alive through the pool
+        for (int x = 0; x < size; x++)
+        {
+            pool.get(x).set(null, null, 0);
+        }
+
+        size = 0;
+    }
+
+    @Override
+    public ProductionEvent get(int index)
+    {
+        if (index < 0 || index >= size)
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+
+        return pool.get(index);
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+}
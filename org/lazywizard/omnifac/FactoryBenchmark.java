@@ -0,0 +1,439 @@
+package org.lazywizard.omnifac;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import com.fs.starfarer.api.campaign.CargoAPI;
+import com.fs.starfarer.api.campaign.CargoStackAPI;
+import com.fs.starfarer.api.combat.ShipAPI.HullSize;
+import com.fs.starfarer.api.combat.WeaponAPI.WeaponSize;
+import com.fs.starfarer.api.fleet.FleetMemberAPI;
+import org.lazywizard.omnifac.OmniFac.BlueprintCategory;
+import org.lazywizard.omnifac.OmniFac.BlueprintData;
+import org.lazywizard.omnifac.OmniFac.BlueprintState;
+
+/**
+ * Times a live factory's daily work without touching the save. Production
+ * days run {@link ProductionEngine} over a copy of the factory's catalog and
+ * stock, picking the day's due blueprints the same way heartbeat() does.
+ * Ingestion passes classify copies of its cargo the same way a full
+ * checkCargo() pass does, without learning or moving anything.
+ * <p>
+ * Neither is the real heartbeat: upkeep, creating ships and weapons in the
+ * cargo, events and messages are not timed.
+ * <p>
+ * Allocations are only counted on JVMs that support it (HotSpot).
+ *
+ * @author LazyWizard
+ */
+public class FactoryBenchmark
+{
+    private static final int WARMUP_OPS = 20;
+    private final String name;
+    private final int numOps;
+    private final long[] nanos;
+    private long allocatedBytes = -1L;
+    // Shown under the results, explains what wasn't measured
+    private String note = null;
+
+    private FactoryBenchmark(String name, int numOps)
+    {
+        this.name = name;
+        this.numOps = numOps;
+        this.nanos = new long[numOps];
+    }
+
+    private interface Operation
+    {
+        void run();
+    }
+
+    private static FactoryBenchmark time(String name, int numOps, Operation op)
+    {
+        for (int x = 0; x < WARMUP_OPS; x++)
+        {
+            op.run();
+        }
+
+        final FactoryBenchmark result = new FactoryBenchmark(name, numOps);
+        final boolean countAllocations = AllocationCounter.isSupported();
+        final long startBytes = (countAllocations ? AllocationCounter.getAllocatedBytes() : 0L);
+        for (int x = 0; x < numOps; x++)
+        {
+            final long startTime = System.nanoTime();
+            op.run();
+            result.nanos[x] = System.nanoTime() - startTime;
+        }
+
+        if (countAllocations)
+        {
+            result.allocatedBytes = AllocationCounter.getAllocatedBytes() - startBytes;
+        }
+
+        Arrays.sort(result.nanos);
+        return result;
+    }
+
+    /**
+     * Runs the given number of production days, starting from a copy of the
+     * factory's current catalog and stock. This is only the engine's share
+     * of a heartbeat, see the class description.
+     */
+    public static FactoryBenchmark heartbeats(OmniFac factory, int numOps)
+    {
+        final CopiedCatalog catalog = new CopiedCatalog(factory);
+        final FactoryBenchmark result = time("Production day", numOps, new Operation()
+        {
+            @Override
+            public void run()
+            {
+                catalog.advance();
+            }
+        });
+
+        result.note = "Engine only, on " + catalog.blueprints.size() + " copied blueprints;"
+                + " the real heartbeat's upkeep, cargo changes and events are not included";
+        return result;
+    }
+
+    /**
+     * Runs the given number of read-only ingestion passes over the factory's
+     * cargo, each as thorough as the one after the player opens the factory.
+     * Nothing is learned, removed or sent to storage.
+     */
+    public static FactoryBenchmark ingestion(final OmniFac factory, int numOps)
+    {
+        final CargoAPI cargo = factory.getOwnCargo();
+        return time("Ingestion", numOps, new Operation()
+        {
+            // Kept so the checks can't be optimized away
+            private int found = 0;
+
+            @Override
+            public void run()
+            {
+                for (FleetMemberAPI ship : cargo.getMothballedShips().getMembersListCopy())
+                {
+                    if (factory.isRestrictedShip(ship) || factory.isUnknownShip(ship))
+                    {
+                        found++;
+                    }
+                }
+
+                for (CargoStackAPI stack : cargo.getStacksCopy())
+                {
+                    if (factory.isRestrictedWeapon(stack) || factory.isUnknownWeapon(stack))
+                    {
+                        found++;
+                    }
+                }
+            }
+        });
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getNumOps()
+    {
+        return numOps;
+    }
+
+    public long getNanosPerOp()
+    {
+        long total = 0L;
+        for (long tmp : nanos)
+        {
+            total += tmp;
+        }
+
+        return (numOps == 0 ? 0L : total / numOps);
+    }
+
+    /** Returns the cost of the slowest 1% of operations, in nanoseconds. */
+    public long getP99Nanos()
+    {
+        return (numOps == 0 ? 0L : nanos[Math.min(numOps - 1, (int) (numOps * 0.99))]);
+    }
+
+    /** Returns bytes allocated per operation, or -1 if they can't be counted. */
+    public long getBytesPerOp()
+    {
+        return (allocatedBytes < 0L || numOps == 0 ? -1L : allocatedBytes / numOps);
+    }
+
+    public List<String> getReport()
+    {
+        final List<String> lines = new ArrayList<>();
+        final long bytes = getBytesPerOp();
+        lines.add(name + " x" + numOps + ": " + getNanosPerOp() + " ns/op, "
+                + (bytes < 0L ? "allocations not available" : bytes + " bytes/op")
+                + ", p99 " + String.format("%.3f ms", getP99Nanos() / 1000000.0));
+        if (note != null)
+        {
+            lines.add(" " + note);
+        }
+
+        return lines;
+    }
+
+    // The factory's blueprints and stock, advanced a day at a time without
+    // touching the factory. Units produced are only counted, not created
+    private static class CopiedCatalog implements ProductionEngine.Callback
+    {
+        private final List<CopiedBlueprint> blueprints = new ArrayList<>();
+        private final Map<String, Integer> stock = new HashMap<>();
+        private final StateIndex index = new StateIndex();
+        private final List<BlueprintData> due = new ArrayList<>();
+        private int day;
+
+        private CopiedCatalog(OmniFac factory)
+        {
+            day = factory.getCurrentDay();
+            for (Iterator<BlueprintData> iter = factory.getAllBlueprints(); iter.hasNext();)
+            {
+                final BlueprintData data = iter.next();
+                final CopiedBlueprint tmp = new CopiedBlueprint(this, data);
+                stock.put(tmp.id, data.getTotal());
+                blueprints.add(tmp);
+                index.update(tmp);
+            }
+        }
+
+        // Picks the day's work the same way OmniFac's heartbeat does
+        private void advance()
+        {
+            day++;
+            due.clear();
+            if (index.hasDueBy(day))
+            {
+                for (Iterator<BlueprintData> iter = index.getDueBy(day); iter.hasNext();)
+                {
+                    due.add(iter.next());
+                }
+            }
+
+            ProductionEngine.advance(due, day, this);
+        }
+
+        private int getStock(String id)
+        {
+            final Integer count = stock.get(id);
+            return (count == null ? 0 : count);
+        }
+
+        @Override
+        public void analysisComplete(BlueprintData data)
+        {
+            index.update(data);
+        }
+
+        @Override
+        public void unitProduced(BlueprintData data)
+        {
+            stock.put(data.getId(), getStock(data.getId()) + 1);
+            index.update(data);
+        }
+
+        @Override
+        public void limitReached(BlueprintData data, boolean wasAtLimit)
+        {
+            index.update(data);
+        }
+
+        @Override
+        public void creationFailed(BlueprintData data, RuntimeException ex)
+        {
+            index.update(data);
+        }
+
+        // Nothing is created, so copies can't find anything missing
+        @Override
+        public boolean isResolvable(BlueprintData data)
+        {
+            return true;
+        }
+
+        @Override
+        public void released(BlueprintData data)
+        {
+            index.update(data);
+        }
+    }
+
+    private static class CopiedBlueprint implements BlueprintData
+    {
+        private final CopiedCatalog catalog;
+        private final String id, displayName;
+        private final BlueprintCategory category;
+        private final HullSize hullSize;
+        private final WeaponSize weaponSize;
+        private final int daysToAnalyze, daysToCreate, limit;
+        private int lastUpdate, failures, retryDay;
+        private boolean warnedLimit, isAnalyzed, atLimit, quarantined;
+
+        private CopiedBlueprint(CopiedCatalog catalog, BlueprintData data)
+        {
+            this.catalog = catalog;
+            id = data.getId();
+            displayName = data.getDisplayName();
+            category = data.getCategory();
+            hullSize = data.getHullSize();
+            weaponSize = data.getWeaponSize();
+            daysToAnalyze = data.getDaysToAnalyze();
+            daysToCreate = data.getDaysToCreate();
+            limit = data.getLimit();
+            lastUpdate = data.getLastUpdate();
+            failures = data.getFailures();
+            retryDay = data.getRetryDay();
+            warnedLimit = data.hasWarnedLimit();
+            isAnalyzed = data.isAnalyzed();
+            atLimit = (data.getState() == BlueprintState.AT_LIMIT);
+            quarantined = (data.getState() == BlueprintState.QUARANTINED);
+        }
+
+        @Override
+        public BlueprintCategory getCategory()
+        {
+            return category;
+        }
+
+        @Override
+        public BlueprintState getState()
+        {
+            if (quarantined)
+            {
+                return BlueprintState.QUARANTINED;
+            }
+
+            return (!isAnalyzed ? BlueprintState.ANALYZING
+                    : (atLimit ? BlueprintState.AT_LIMIT : BlueprintState.PRODUCING));
+        }
+
+        @Override
+        public HullSize getHullSize()
+        {
+            return hullSize;
+        }
+
+        @Override
+        public WeaponSize getWeaponSize()
+        {
+            return weaponSize;
+        }
+
+        @Override
+        public int getDaysToAnalyze()
+        {
+            return daysToAnalyze;
+        }
+
+        @Override
+        public int getDaysToCreate()
+        {
+            return daysToCreate;
+        }
+
+        @Override
+        public int getLastUpdate()
+        {
+            return lastUpdate;
+        }
+
+        @Override
+        public String getDisplayName()
+        {
+            return displayName;
+        }
+
+        @Override
+        public String getId()
+        {
+            return id;
+        }
+
+        @Override
+        public int getTotal()
+        {
+            return catalog.getStock(id);
+        }
+
+        @Override
+        public int getLimit()
+        {
+            return limit;
+        }
+
+        @Override
+        public boolean hasWarnedLimit()
+        {
+            return warnedLimit;
+        }
+
+        @Override
+        public void setWarnedLimit(boolean hasWarned)
+        {
+            warnedLimit = hasWarned;
+        }
+
+        @Override
+        public boolean isAnalyzed()
+        {
+            return isAnalyzed;
+        }
+
+        @Override
+        public void setAnalyzed(boolean isAnalyzed)
+        {
+            this.isAnalyzed = isAnalyzed;
+            lastUpdate = catalog.day;
+        }
+
+        @Override
+        public int getFailures()
+        {
+            return failures;
+        }
+
+        @Override
+        public int getRetryDay()
+        {
+            return retryDay;
+        }
+
+        @Override
+        public void quarantine(int retryDay)
+        {
+            failures++;
+            quarantined = true;
+            this.retryDay = retryDay;
+        }
+
+        @Override
+        public void release()
+        {
+            quarantined = false;
+        }
+
+        // Only checks the limit, the catalog counts the unit once it's produced
+        @Override
+        public boolean create()
+        {
+            lastUpdate = catalog.day;
+            atLimit = (getTotal() >= limit);
+            if (atLimit)
+            {
+                return false;
+            }
+
+            warnedLimit = false;
+            failures = 0;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package org.lazywizard.omnifac;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.log4j.Logger;
+
+/**
+ * Writes a compact binary log of everything that affects a single factory's
+ * production: the settings in use, the catalog at the start of the session,
+ * newly learned blueprints, and for every heartbeat the stock counts and
+ * failures the factory observed. {@link HeartbeatReplay} can then run the
+ * same sequence outside of the game.
+ * <p>
+ * Recording is enabled with the "recordHeartbeats" setting. If writing fails
+ * the recorder disables itself rather than interfering with the game.
+ * Sessions are appended to the factory's existing recording unless it was
+ * written in an older format, in which case it's kept alongside as
+ * &lt;factory&gt;_v&lt;version&gt;.ofrec and a new recording is started.
+ *
+ * @author LazyWizard
+ */
+class HeartbeatRecorder
+{
+    static final int MAGIC = 0x4F465243; // "OFRC"
+    static final int FORMAT_VERSION = 4;
+    static final byte TAG_SETTINGS = 'S', TAG_CATALOG = 'C', TAG_BLUEPRINT = 'B',
+            TAG_HEARTBEAT = 'H';
+    static final byte KIND_SHIP = 0, KIND_WING = 1, KIND_WEAPON = 2;
+    static final byte FLAG_ANALYZED = 1, FLAG_AT_LIMIT = 2, FLAG_QUARANTINED = 4;
+    private static final Logger Log = Logger.getLogger(HeartbeatRecorder.class);
+    // Every recorder with an open file, so they can be closed on reload
+    private static final List<HeartbeatRecorder> openRecorders = new ArrayList<>();
+    private final Map<String, Integer> idTable = new HashMap<>();
+    private final List<String> observedIds = new ArrayList<>();
+    private final List<Integer> observedTotals = new ArrayList<>();
+    private final List<String> failedIds = new ArrayList<>();
+    private final List<String> releasedIds = new ArrayList<>();
+    private final String file;
+    private DataOutputStream out;
+    private int outcomeDigest = 0;
+
+    HeartbeatRecorder(String factoryId)
+    {
+        file = Constants.RECORDING_DIR + factoryId + Constants.RECORDING_EXTENSION;
+        try
+        {
+            final File tmp = new File(file);
+            tmp.getParentFile().mkdirs();
+            boolean isNew = !tmp.exists() || tmp.length() == 0;
+            if (!isNew)
+            {
+                final int version = readVersion(tmp);
+                if (version != FORMAT_VERSION)
+                {
+                    final File old = new File(Constants.RECORDING_DIR + factoryId + "_v"
+                            + version + Constants.RECORDING_EXTENSION);
+                    old.delete();
+                    if (!tmp.renameTo(old) && !tmp.delete())
+                    {
+                        throw new IOException("Unable to replace outdated recording " + file);
+                    }
+
+                    Log.info("Recording " + file + " is in an older format, moved to "
+                            + old.getPath());
+                    isNew = true;
+                }
+            }
+
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp, true)));
+            openRecorders.add(this);
+            beginSession(isNew);
+        }
+        catch (IOException ex)
+        {
+            fail(ex);
+        }
+    }
+
+    // Records into a stream instead of a file, ie for checks run outside the game
+    HeartbeatRecorder(OutputStream stream)
+    {
+        file = "(stream)";
+        out = new DataOutputStream(new BufferedOutputStream(stream));
+        try
+        {
+            beginSession(true);
+        }
+        catch (IOException ex)
+        {
+            fail(ex);
+        }
+    }
+
+    private void beginSession(boolean isNew) throws IOException
+    {
+        if (isNew)
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+        }
+
+        out.writeByte(TAG_SETTINGS);
+        out.writeUTF(OmniFacSettings.getSettingsSnapshot());
+    }
+
+    // Returns -1 if the file isn't a recording at all
+    private static int readVersion(File recording)
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(recording))))
+        {
+            return (in.readInt() == MAGIC ? in.readInt() : -1);
+        }
+        catch (IOException ex)
+        {
+            return -1;
+        }
+    }
+
+    /** Closes every open recording, ie before a save's factories are replaced. */
+    static void closeAll()
+    {
+        for (HeartbeatRecorder recorder : new ArrayList<>(openRecorders))
+        {
+            recorder.close();
+        }
+    }
+
+    // Combined without regard to order, as blueprints are processed in map order
+    static int digest(int digest, ProductionEvent.EventType type, String id)
+    {
+        return digest + (((type.ordinal() + 1) * 1000003) ^ id.hashCode());
+    }
+
+    boolean isActive()
+    {
+        return (out != null);
+    }
+
+    private void fail(IOException ex)
+    {
+        Log.error("Failed to write heartbeat recording " + file + ", recording disabled", ex);
+        close();
+    }
+
+    void close()
+    {
+        openRecorders.remove(this);
+        if (out != null)
+        {
+            try
+            {
+                out.close();
+            }
+            catch (IOException ex)
+            {
+                Log.warn("Failed to close heartbeat recording " + file, ex);
+            }
+        }
+
+        out = null;
+    }
+
+    // Ids are written as a table index, with the string itself only written
+    // the first time it's seen in a session (each session restarts the table)
+    private void writeId(String id) throws IOException
+    {
+        final Integer index = idTable.get(id);
+        if (index != null)
+        {
+            out.writeInt(index);
+            return;
+        }
+
+        out.writeInt(idTable.size());
+        out.writeUTF(id);
+        idTable.put(id, idTable.size());
+    }
+
+    void beginCatalog(int day, int numBlueprints)
+    {
+        if (out == null)
+        {
+            return;
+        }
+
+        try
+        {
+            out.writeByte(TAG_CATALOG);
+            out.writeInt(day);
+            out.writeInt(numBlueprints);
+        }
+        catch (IOException ex)
+        {
+            fail(ex);
+        }
+    }
+
+    /**
+     * Records a blueprint's definition and state. Must follow a call to
+     * {@link #beginCatalog(int, int)}, or be passed isNew for blueprints
+     * learned after it.
+     */
+    void recordBlueprint(boolean isNew, byte kind, String id, int sizeOrdinal,
+            int fpOrTier, float cargoSpace, int limit, int lastUpdate, boolean isAnalyzed,
+            boolean atLimit, boolean isQuarantined, int failures, int retryDay)
+    {
+        if (out == null)
+        {
+            return;
+        }
+
+        try
+        {
+            if (isNew)
+            {
+                out.writeByte(TAG_BLUEPRINT);
+            }
+
+            out.writeByte(kind);
+            writeId(id);
+            out.writeByte(sizeOrdinal);
+            out.writeInt(fpOrTier);
+            out.writeFloat(cargoSpace);
+            // Limits can be overridden per good, so they're recorded as resolved
+            out.writeInt(limit);
+            out.writeInt(lastUpdate);
+            out.writeByte((isAnalyzed ? FLAG_ANALYZED : 0) | (atLimit ? FLAG_AT_LIMIT : 0)
+                    | (isQuarantined ? FLAG_QUARANTINED : 0));
+            out.writeInt(failures);
+            out.writeInt(retryDay);
+        }
+        catch (IOException ex)
+        {
+            fail(ex);
+        }
+    }
+
+    void observeStock(String id, int total)
+    {
+        if (out != null)
+        {
+            observedIds.add(id);
+            observedTotals.add(total);
+        }
+    }
+
+    void observeFailure(String id)
+    {
+        if (out != null)
+        {
+            failedIds.add(id);
+        }
+    }
+
+    // A quarantined blueprint whose spec could be found again
+    void observeRelease(String id)
+    {
+        if (out != null)
+        {
+            releasedIds.add(id);
+        }
+    }
+
+    void observeOutcome(ProductionEvent.EventType type, String id)
+    {
+        outcomeDigest = digest(outcomeDigest, type, id);
+    }
+
+    void endHeartbeat(long timestamp, boolean metRequirements, int day)
+    {
+        if (out == null)
+        {
+            return;
+        }
+
+        try
+        {
+            out.writeByte(TAG_HEARTBEAT);
+            out.writeLong(timestamp);
+            out.writeBoolean(metRequirements);
+            out.writeInt(day);
+            out.writeInt(observedIds.size());
+            for (int x = 0; x < observedIds.size(); x++)
+            {
+                writeId(observedIds.get(x));
+                out.writeInt(observedTotals.get(x));
+            }
+
+            out.writeInt(failedIds.size());
+            for (String id : failedIds)
+            {
+                writeId(id);
+            }
+
+            out.writeInt(releasedIds.size());
+            for (String id : releasedIds)
+            {
+                writeId(id);
+            }
+
+            out.writeInt(outcomeDigest);
+            out.flush();
+        }
+        catch (IOException ex)
+        {
+            fail(ex);
+        }
+        finally
+        {
+            observedIds.clear();
+            observedTotals.clear();
+            failedIds.clear();
+            releasedIds.clear();
+            outcomeDigest = 0;
+        }
+    }
+}
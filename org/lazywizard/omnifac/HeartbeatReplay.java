@@ -0,0 +1,479 @@
+package org.lazywizard.omnifac;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.fs.starfarer.api.combat.ShipAPI.HullSize;
+import com.fs.starfarer.api.combat.WeaponAPI.WeaponSize;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.lazywizard.omnifac.OmniFac.BlueprintCategory;
+import org.lazywizard.omnifac.OmniFac.BlueprintData;
+import org.lazywizard.omnifac.OmniFac.BlueprintState;
+import org.lazywizard.omnifac.ProductionEvent.EventType;
+
+/**
+ * Replays a recording made by {@link HeartbeatRecorder} outside of the game.
+ * Every recorded heartbeat is run through {@link ProductionEngine} against
+ * stub cargo holding the stock counts the factory saw, and its outcome is
+ * compared with what the factory actually did. Any mismatch means the
+ * production logic no longer behaves the way it did when recorded.
+ * <pre>
+ * java -cp starfarer.api.jar;json.jar;omnifactory.jar
+ *     org.lazywizard.omnifac.HeartbeatReplay recording.ofrec [passes]
+ * </pre>
+ *
+ * @author LazyWizard
+ */
+public class HeartbeatReplay
+{
+    private final Map<String, ReplayBlueprint> blueprints = new LinkedHashMap<>();
+    private final List<String> idTable = new ArrayList<>();
+    private final Map<String, Integer> stock = new HashMap<>();
+    private final Set<String> failures = new HashSet<>();
+    private final Set<String> released = new HashSet<>();
+    private int day = 0, digest = 0;
+
+    private HeartbeatReplay()
+    {
+    }
+
+    /**
+     * Replays an entire recording.
+     *
+     * @return The number of heartbeats replayed and how many of them
+     *         diverged from the recording.
+     */
+    public static ReplayResult replay(InputStream recording) throws IOException, JSONException
+    {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(recording));
+        if (in.readInt() != HeartbeatRecorder.MAGIC)
+        {
+            throw new IOException("Not an Omnifactory heartbeat recording");
+        }
+
+        final int version = in.readInt();
+        if (version != HeartbeatRecorder.FORMAT_VERSION)
+        {
+            throw new IOException("Unsupported recording version: " + version);
+        }
+
+        final HeartbeatReplay replay = new HeartbeatReplay();
+        final ReplayResult result = new ReplayResult();
+        final long startTime = System.nanoTime();
+        while (true)
+        {
+            final int tag;
+            try
+            {
+                tag = in.readByte();
+            }
+            catch (EOFException ex)
+            {
+                break;
+            }
+
+            switch (tag)
+            {
+                case HeartbeatRecorder.TAG_SETTINGS:
+                    OmniFacSettings.loadSettings(new JSONObject(in.readUTF()));
+                    replay.idTable.clear();
+                    break;
+                case HeartbeatRecorder.TAG_CATALOG:
+                    replay.blueprints.clear();
+                    replay.day = in.readInt();
+                    for (int x = in.readInt(); x > 0; x--)
+                    {
+                        replay.readBlueprint(in);
+                    }
+                    break;
+                case HeartbeatRecorder.TAG_BLUEPRINT:
+                    replay.readBlueprint(in);
+                    break;
+                case HeartbeatRecorder.TAG_HEARTBEAT:
+                    replay.replayHeartbeat(in, result);
+                    break;
+                default:
+                    throw new IOException("Corrupt recording, unknown record type " + tag);
+            }
+        }
+
+        result.elapsedNanos = System.nanoTime() - startTime;
+        return result;
+    }
+
+    private String readId(DataInputStream in) throws IOException
+    {
+        final int index = in.readInt();
+        if (index == idTable.size())
+        {
+            idTable.add(in.readUTF());
+        }
+
+        return idTable.get(index);
+    }
+
+    private void readBlueprint(DataInputStream in) throws IOException
+    {
+        final byte kind = in.readByte();
+        final String id = readId(in);
+        final int sizeOrdinal = in.readByte(), fpOrTier = in.readInt();
+        final float cargoSpace = in.readFloat();
+        final int limit = in.readInt(), lastUpdate = in.readInt(), flags = in.readByte(),
+                numFailures = in.readInt(), retryDay = in.readInt();
+
+        final ReplayBlueprint tmp;
+        if (kind == HeartbeatRecorder.KIND_WEAPON)
+        {
+            tmp = new ReplayBlueprint(id, BlueprintCategory.WEAPON, null,
+                    WeaponSize.values()[sizeOrdinal],
+                    ProductionRules.getWeaponDaysToAnalyze(cargoSpace, fpOrTier),
+                    ProductionRules.getWeaponDaysToCreate(cargoSpace, fpOrTier), limit);
+        }
+        else
+        {
+            tmp = new ReplayBlueprint(id, (kind == HeartbeatRecorder.KIND_WING
+                    ? BlueprintCategory.WING : BlueprintCategory.SHIP),
+                    HullSize.values()[sizeOrdinal], null,
+                    ProductionRules.getShipDaysToAnalyze(fpOrTier, sizeOrdinal),
+                    ProductionRules.getShipDaysToCreate(fpOrTier, sizeOrdinal), limit);
+        }
+
+        tmp.lastUpdate = lastUpdate;
+        tmp.isAnalyzed = (flags & HeartbeatRecorder.FLAG_ANALYZED) != 0;
+        tmp.atLimit = (flags & HeartbeatRecorder.FLAG_AT_LIMIT) != 0;
+        tmp.quarantined = (flags & HeartbeatRecorder.FLAG_QUARANTINED) != 0;
+        tmp.failureCount = numFailures;
+        tmp.retryDay = retryDay;
+        blueprints.put(tmp.id, tmp);
+    }
+
+    private void replayHeartbeat(DataInputStream in, ReplayResult result) throws IOException
+    {
+        in.readLong(); // Timestamp, only used when reading recordings by hand
+        final boolean metRequirements = in.readBoolean();
+        final int recordedDay = in.readInt();
+        stock.clear();
+        for (int x = in.readInt(); x > 0; x--)
+        {
+            final String id = readId(in);
+            stock.put(id, in.readInt());
+        }
+
+        failures.clear();
+        for (int x = in.readInt(); x > 0; x--)
+        {
+            failures.add(readId(in));
+        }
+
+        released.clear();
+        for (int x = in.readInt(); x > 0; x--)
+        {
+            released.add(readId(in));
+        }
+
+        final int recordedDigest = in.readInt();
+        result.heartbeats++;
+        if (!metRequirements)
+        {
+            return;
+        }
+
+        day++;
+        digest = 0;
+        final List<ReplayBlueprint> broken = new ArrayList<>();
+        ProductionEngine.advance(blueprints.values(), day, new ProductionEngine.Callback()
+        {
+            @Override
+            public void analysisComplete(BlueprintData data)
+            {
+                digest = HeartbeatRecorder.digest(digest, EventType.ANALYSIS_COMPLETE, data.getId());
+            }
+
+            @Override
+            public void unitProduced(BlueprintData data)
+            {
+                digest = HeartbeatRecorder.digest(digest, EventType.UNIT_PRODUCED, data.getId());
+            }
+
+            @Override
+            public void limitReached(BlueprintData data, boolean wasAtLimit)
+            {
+                digest = HeartbeatRecorder.digest(digest, EventType.LIMIT_REACHED, data.getId());
+            }
+
+            @Override
+            public void creationFailed(BlueprintData data, RuntimeException ex)
+            {
+                if (OmniFacSettings.shouldRemoveBrokenGoods())
+                {
+                    broken.add((ReplayBlueprint) data);
+                }
+            }
+
+            // The recording knows which specs the game could find that day
+            @Override
+            public boolean isResolvable(BlueprintData data)
+            {
+                return released.contains(data.getId());
+            }
+
+            @Override
+            public void released(BlueprintData data)
+            {
+            }
+        });
+
+        for (ReplayBlueprint tmp : broken)
+        {
+            blueprints.remove(tmp.id);
+        }
+
+        if (digest != recordedDigest || day != recordedDay)
+        {
+            result.mismatches++;
+            if (result.firstMismatchDay < 0)
+            {
+                result.firstMismatchDay = recordedDay;
+            }
+
+            // Resynchronize so one divergence isn't reported on every later day
+            day = recordedDay;
+        }
+    }
+
+    public static class ReplayResult
+    {
+        private int heartbeats = 0, mismatches = 0, firstMismatchDay = -1;
+        private long elapsedNanos = 0;
+
+        public int getHeartbeats()
+        {
+            return heartbeats;
+        }
+
+        public int getMismatches()
+        {
+            return mismatches;
+        }
+
+        public int getFirstMismatchDay()
+        {
+            return firstMismatchDay;
+        }
+
+        public long getElapsedNanos()
+        {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Replayed " + heartbeats + " heartbeats in "
+                    + String.format("%.2f", elapsedNanos / 1000000.0) + " ms, "
+                    + (mismatches == 0 ? "all identical to the recording"
+                            : mismatches + " diverged (first on day " + firstMismatchDay + ")");
+        }
+    }
+
+    // Reads its stock from the current heartbeat's recorded observations
+    private class ReplayBlueprint implements BlueprintData
+    {
+        final String id;
+        final BlueprintCategory category;
+        final HullSize hullSize;
+        final WeaponSize weaponSize;
+        final int daysToAnalyze, daysToCreate, limit;
+        int lastUpdate, failureCount = 0, retryDay = 0;
+        boolean warnedLimit = false, isAnalyzed = false, atLimit = false, quarantined = false;
+
+        ReplayBlueprint(String id, BlueprintCategory category, HullSize hullSize,
+                WeaponSize weaponSize, int daysToAnalyze, int daysToCreate, int limit)
+        {
+            this.id = id;
+            this.category = category;
+            this.hullSize = hullSize;
+            this.weaponSize = weaponSize;
+            this.daysToAnalyze = daysToAnalyze;
+            this.daysToCreate = daysToCreate;
+            this.limit = limit;
+        }
+
+        @Override
+        public BlueprintCategory getCategory()
+        {
+            return category;
+        }
+
+        @Override
+        public BlueprintState getState()
+        {
+            if (quarantined)
+            {
+                return BlueprintState.QUARANTINED;
+            }
+
+            return (!isAnalyzed ? BlueprintState.ANALYZING
+                    : (atLimit ? BlueprintState.AT_LIMIT : BlueprintState.PRODUCING));
+        }
+
+        @Override
+        public HullSize getHullSize()
+        {
+            return hullSize;
+        }
+
+        @Override
+        public WeaponSize getWeaponSize()
+        {
+            return weaponSize;
+        }
+
+        @Override
+        public int getDaysToAnalyze()
+        {
+            return daysToAnalyze;
+        }
+
+        @Override
+        public int getDaysToCreate()
+        {
+            return daysToCreate;
+        }
+
+        @Override
+        public int getLastUpdate()
+        {
+            return lastUpdate;
+        }
+
+        @Override
+        public String getDisplayName()
+        {
+            return id;
+        }
+
+        @Override
+        public String getId()
+        {
+            return id;
+        }
+
+        @Override
+        public int getTotal()
+        {
+            final Integer total = stock.get(id);
+            return (total == null ? 0 : total);
+        }
+
+        @Override
+        public int getLimit()
+        {
+            return limit;
+        }
+
+        @Override
+        public boolean hasWarnedLimit()
+        {
+            return warnedLimit;
+        }
+
+        @Override
+        public void setWarnedLimit(boolean hasWarned)
+        {
+            warnedLimit = hasWarned;
+        }
+
+        @Override
+        public boolean isAnalyzed()
+        {
+            return isAnalyzed;
+        }
+
+        @Override
+        public void setAnalyzed(boolean isAnalyzed)
+        {
+            this.isAnalyzed = isAnalyzed;
+            lastUpdate = day;
+        }
+
+        @Override
+        public int getFailures()
+        {
+            return failureCount;
+        }
+
+        @Override
+        public int getRetryDay()
+        {
+            return retryDay;
+        }
+
+        @Override
+        public void quarantine(int retryDay)
+        {
+            failureCount++;
+            quarantined = true;
+            this.retryDay = retryDay;
+        }
+
+        @Override
+        public void release()
+        {
+            quarantined = false;
+        }
+
+        @Override
+        public boolean create()
+        {
+            lastUpdate = day;
+            atLimit = (getTotal() >= limit);
+            if (atLimit)
+            {
+                return false;
+            }
+
+            // The factory failed while adding the good to its cargo
+            if (failures.contains(id))
+            {
+                throw new RuntimeException("Recorded failure for " + id);
+            }
+
+            warnedLimit = false;
+            failureCount = 0;
+            stock.put(id, getTotal() + 1);
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, JSONException
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: HeartbeatReplay <recording" + Constants.RECORDING_EXTENSION
+                    + "> [passes]");
+            return;
+        }
+
+        // Multiple passes give the JIT time to warm up when profiling
+        final int passes = (args.length > 1 ? Integer.parseInt(args[1]) : 1);
+        for (int x = 0; x < passes; x++)
+        {
+            try (InputStream in = new FileInputStream(args[0]))
+            {
+                System.out.println(replay(in));
+            }
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package org.lazywizard.omnifac;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import com.fs.starfarer.api.combat.ShipAPI.HullSize;
+import com.fs.starfarer.api.combat.WeaponAPI.WeaponSize;
+import com.fs.starfarer.api.fleet.FleetMemberType;
+import org.lazywizard.omnifac.BlueprintLibrary.ShipDefinition;
+import org.lazywizard.omnifac.BlueprintLibrary.WeaponDefinition;
+
+/**
+ * Saves a factory's known blueprints to a compact binary file that can be
+ * loaded into a factory in any other campaign. A library is read into memory
+ * and checked in full when it's opened, so a damaged file is rejected before
+ * a single blueprint is imported. The file isn't kept open (or mapped, which
+ * would lock it on Windows until the mapping was garbage collected).
+ * <p>
+ * Layout: magic, version, count, then count records. Each record is a kind
+ * byte, the id and display name (as a short length followed by UTF-8 bytes),
+ * a size ordinal, fleet points or tier, cargo space, and a flags byte.
+ * Version 1 files also have an index of (id hash, offset) pairs between the
+ * count and the records; it was never needed to import, so it's skipped.
+ *
+ * @author LazyWizard
+ */
+public class LibraryFile
+{
+    private static final int MAGIC = 0x4F464C42; // "OFLB"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 12, V1_INDEX_ENTRY_SIZE = 8;
+    private static final byte KIND_SHIP = 0, KIND_WEAPON = 1;
+    private static final byte FLAG_ANALYZED = 1;
+    private final List<Record> records;
+
+    private LibraryFile(ByteBuffer buffer) throws IOException
+    {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt() != MAGIC)
+        {
+            throw new IOException("Not an Omnifactory blueprint library");
+        }
+
+        final int version = buffer.getInt();
+        if (version != 1 && version != FORMAT_VERSION)
+        {
+            throw new IOException("Unsupported library version: " + version);
+        }
+
+        // Every record is at least this long, so a bad count is caught early
+        final int count = buffer.getInt();
+        final long indexSize = (version == 1 ? (long) count * V1_INDEX_ENTRY_SIZE : 0L);
+        if (count < 0 || HEADER_SIZE + indexSize + count * (long) Record.MIN_SIZE
+                > buffer.limit())
+        {
+            throw new IOException("Corrupt blueprint library: bad record count " + count);
+        }
+
+        buffer.position((int) (HEADER_SIZE + indexSize));
+        final List<Record> tmp = new ArrayList<>(count);
+        try
+        {
+            for (int x = 0; x < count; x++)
+            {
+                tmp.add(new Record(buffer));
+            }
+        }
+        catch (BufferUnderflowException ex)
+        {
+            throw new IOException("Corrupt blueprint library: record "
+                    + tmp.size() + " runs past the end of the file", ex);
+        }
+
+        records = Collections.unmodifiableList(tmp);
+    }
+
+    public static File getFile(String name)
+    {
+        return new File(Constants.LIBRARY_DIR + name + Constants.LIBRARY_EXTENSION);
+    }
+
+    /**
+     * Reads and checks a library file. Nothing is imported until
+     * {@link #importInto(OmniFac)} is called.
+     *
+     * @throws IOException if the file can't be read or any of its records
+     *                     are damaged.
+     */
+    public static LibraryFile open(File file) throws IOException
+    {
+        return new LibraryFile(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+    }
+
+    //<editor-fold desc="Writing">
+    private static void writeString(DataOutputStream out, String str) throws IOException
+    {
+        final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes every blueprint the factory knows to a library file, replacing
+     * it if it already exists.
+     *
+     * @return The number of blueprints written.
+     */
+    public static int export(OmniFac factory, File file) throws IOException
+    {
+        final List<byte[]> records = new ArrayList<>();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        final DataOutputStream record = new DataOutputStream(bytes);
+        for (ShipDefinition def : factory.getShipDefinitions())
+        {
+            bytes.reset();
+            record.writeByte(KIND_SHIP);
+            writeString(record, def.id);
+            writeString(record, def.displayName);
+            record.writeByte(def.size);
+            record.writeInt(def.fp);
+            record.writeFloat(0f);
+            record.writeByte(def.isAnalyzed ? FLAG_ANALYZED : 0);
+            records.add(bytes.toByteArray());
+        }
+
+        for (WeaponDefinition def : factory.getWeaponDefinitions())
+        {
+            bytes.reset();
+            record.writeByte(KIND_WEAPON);
+            writeString(record, def.id);
+            writeString(record, def.displayName);
+            record.writeByte(def.weaponSize == null ? -1 : def.weaponSize.ordinal());
+            record.writeInt(def.tier == null ? -1 : def.tier);
+            record.writeFloat(def.cargoSpace);
+            record.writeByte(def.isAnalyzed ? FLAG_ANALYZED : 0);
+            records.add(bytes.toByteArray());
+        }
+
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(records.size());
+            for (byte[] tmp : records)
+            {
+                out.write(tmp);
+            }
+        }
+
+        return records.size();
+    }
+    //</editor-fold>
+
+    //<editor-fold desc="Reading">
+    public int size()
+    {
+        return records.size();
+    }
+
+    /**
+     * Teaches a factory every blueprint in this library that it doesn't
+     * already know. Blueprints whose hull, wing or weapon isn't loaded in
+     * the current game, or that are restricted in this game's settings, are
+     * skipped.
+     */
+    public ImportResult importInto(OmniFac factory)
+    {
+        final ImportResult result = new ImportResult();
+        for (Record tmp : records)
+        {
+            final boolean isShip = (tmp.kind == KIND_SHIP);
+            if ((isShip ? OmniFacSettings.getRestrictedShips()
+                    : OmniFacSettings.getRestrictedWeapons()).contains(tmp.id))
+            {
+                result.restricted++;
+                continue;
+            }
+
+            if (isShip ? factory.getShipBlueprint(tmp.id) != null
+                    : factory.getWeaponBlueprint(tmp.id) != null)
+            {
+                result.known++;
+                continue;
+            }
+
+            if (isShip)
+            {
+                final boolean isWing = (tmp.sizeOrdinal == HullSize.FIGHTER.ordinal());
+                if (!(isWing ? SpecRegistry.hasWing(tmp.id) : SpecRegistry.hasHull(tmp.id)))
+                {
+                    result.unresolved++;
+                    continue;
+                }
+
+                factory.importBlueprint(new ShipDefinition(tmp.id, tmp.displayName, (isWing
+                        ? FleetMemberType.FIGHTER_WING : FleetMemberType.SHIP),
+                        tmp.fpOrTier, tmp.sizeOrdinal, tmp.isAnalyzed));
+            }
+            else
+            {
+                if (!SpecRegistry.hasWeapon(tmp.id))
+                {
+                    result.unresolved++;
+                    continue;
+                }
+
+                factory.importBlueprint(new WeaponDefinition(tmp.id, tmp.displayName,
+                        (tmp.sizeOrdinal < 0 ? null : WeaponSize.values()[tmp.sizeOrdinal]),
+                        (tmp.fpOrTier < 0 ? null : tmp.fpOrTier), tmp.cargoSpace,
+                        ProductionRules.getWeaponStackSize(tmp.cargoSpace), tmp.isAnalyzed));
+            }
+
+            result.imported++;
+        }
+
+        return result;
+    }
+
+    // A single blueprint, decoded and checked when the library is opened
+    private static class Record
+    {
+        // Kind, two empty strings, size, fleet points or tier, cargo space and flags
+        private static final int MIN_SIZE = 1 + 2 + 2 + 1 + 4 + 4 + 1;
+        private final byte kind;
+        private final String id, displayName;
+        private final int sizeOrdinal, fpOrTier;
+        private final float cargoSpace;
+        private final boolean isAnalyzed;
+
+        // Reads from the buffer's position, which is left after the record
+        private Record(ByteBuffer buffer) throws IOException
+        {
+            kind = buffer.get();
+            id = readString(buffer);
+            if (kind != KIND_SHIP && kind != KIND_WEAPON)
+            {
+                throw new IOException("Corrupt library record for '" + id
+                        + "': unknown kind " + kind);
+            }
+
+            displayName = readString(buffer);
+            sizeOrdinal = buffer.get();
+            fpOrTier = buffer.getInt();
+            cargoSpace = buffer.getFloat();
+            isAnalyzed = (buffer.get() & FLAG_ANALYZED) != 0;
+
+            // Weapons from older saves may not know their size
+            if (kind == KIND_SHIP ? (sizeOrdinal < 0 || sizeOrdinal >= HullSize.values().length)
+                    : (sizeOrdinal < -1 || sizeOrdinal >= WeaponSize.values().length))
+            {
+                throw new IOException("Corrupt library record for '" + id
+                        + "': unknown size " + sizeOrdinal);
+            }
+        }
+
+        private static String readString(ByteBuffer buffer)
+        {
+            final byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+    //</editor-fold>
+
+    public static class ImportResult
+    {
+        private int imported = 0, known = 0, unresolved = 0, restricted = 0;
+
+        public int getImported()
+        {
+            return imported;
+        }
+
+        public int getAlreadyKnown()
+        {
+            return known;
+        }
+
+        public int getUnresolved()
+        {
+            return unresolved;
+        }
+
+        public int getRestricted()
+        {
+            return restricted;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package org.lazywizard.omnifac;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import com.fs.starfarer.api.combat.ShipAPI.HullSize;
+import com.fs.starfarer.api.combat.WeaponAPI.WeaponSize;
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * How many of each good the Omnifactory will stockpile, with per-good
+ * overrides from production_limits.csv. Each row's "rule" is one of:
+ * <ul>
+ * <li>ship:&lt;hull or wing id&gt; or weapon:&lt;weapon id&gt;</li>
+ * <li>tag:&lt;ballistic|energy|missile&gt; (weapons only)</li>
+ * <li>size:&lt;hull size or weapon size&gt;, ie size:capital_ship or size:large</li>
+ * </ul>
+ * An id rule beats a tag rule, which beats a size rule; goods without any
+ * matching rule use the limits in omnifac_settings.json.
+ * <p>
+ * Rules are resolved once per good and the result is stored in a flat
+ * array. Blueprints remember their slot in it, so checking a limit is a
+ * single array read. Slots are reassigned whenever settings are reloaded.
+ *
+ * @author LazyWizard
+ */
+class LimitTable
+{
+    private static final Logger Log = Logger.getLogger(LimitTable.class);
+    private static final int NO_RULE = -1;
+    // Compiled rules
+    private static Map<String, Integer> shipRules = new HashMap<>(),
+            weaponRules = new HashMap<>(), tagRules = new HashMap<>();
+    private static int[] hullSizeRules = createEmptyRules(HullSize.values().length),
+            weaponSizeRules = createEmptyRules(WeaponSize.values().length);
+    // Resolved limits, only valid for the settings version they were built for
+    private static final Map<String, Integer> shipSlots = new HashMap<>(),
+            weaponSlots = new HashMap<>();
+    private static int[] limits = new int[256];
+    private static int numSlots = 0, slotVersion = -1;
+
+    private static int[] createEmptyRules(int size)
+    {
+        final int[] rules = new int[size];
+        Arrays.fill(rules, NO_RULE);
+        return rules;
+    }
+
+    private static void clearSlots()
+    {
+        shipSlots.clear();
+        weaponSlots.clear();
+        numSlots = 0;
+        slotVersion = OmniFacSettings.getVersion();
+    }
+
+    /**
+     * Replaces the current rules with the rows of production_limits.csv.
+     * Rows that can't be understood are logged and ignored.
+     */
+    static void compile(JSONArray csv) throws JSONException
+    {
+        final Map<String, Integer> ships = new HashMap<>(),
+                weapons = new HashMap<>(), tags = new HashMap<>();
+        final int[] hullSizes = createEmptyRules(HullSize.values().length),
+                weaponSizes = createEmptyRules(WeaponSize.values().length);
+        for (int x = 0; x < csv.length(); x++)
+        {
+            final JSONObject row = csv.getJSONObject(x);
+            final String rule = row.optString("rule", "").trim();
+            if (rule.isEmpty() || rule.startsWith("#"))
+            {
+                continue;
+            }
+
+            final int split = rule.indexOf(':');
+            final int limit = row.optInt("limit", NO_RULE);
+            if (split < 0 || limit < 0)
+            {
+                Log.warn("Ignoring invalid production limit: \"" + rule + "\"");
+                continue;
+            }
+
+            final String type = rule.substring(0, split), value = rule.substring(split + 1);
+            switch (type)
+            {
+                case "ship":
+                    ships.put(value, limit);
+                    break;
+                case "weapon":
+                    weapons.put(value, limit);
+                    break;
+                case "tag":
+                    tags.put(value.toLowerCase(), limit);
+                    break;
+                case "size":
+                    if (!setSizeRule(value.toUpperCase(), limit, hullSizes, weaponSizes))
+                    {
+                        Log.warn("Ignoring production limit for unknown size: \"" + rule + "\"");
+                    }
+                    break;
+                default:
+                    Log.warn("Ignoring invalid production limit: \"" + rule + "\"");
+            }
+        }
+
+        shipRules = ships;
+        weaponRules = weapons;
+        tagRules = tags;
+        hullSizeRules = hullSizes;
+        weaponSizeRules = weaponSizes;
+        clearSlots();
+    }
+
+    private static boolean setSizeRule(String size, int limit, int[] hullSizes, int[] weaponSizes)
+    {
+        for (HullSize tmp : HullSize.values())
+        {
+            if (tmp.name().equals(size))
+            {
+                hullSizes[tmp.ordinal()] = limit;
+                return true;
+            }
+        }
+
+        for (WeaponSize tmp : WeaponSize.values())
+        {
+            if (tmp.name().equals(size))
+            {
+                weaponSizes[tmp.ordinal()] = limit;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    static int getShipLimit(String id, int hullSize)
+    {
+        final Integer byId = shipRules.get(id);
+        if (byId != null)
+        {
+            return byId;
+        }
+
+        if (hullSize >= 0 && hullSize < hullSizeRules.length && hullSizeRules[hullSize] != NO_RULE)
+        {
+            return hullSizeRules[hullSize];
+        }
+
+        return ProductionRules.getShipLimit(hullSize);
+    }
+
+    // Size and tag can be null if the weapon's spec isn't loaded
+    static int getWeaponLimit(String id, WeaponSize size, String tag, int stackSize)
+    {
+        final Integer byId = weaponRules.get(id);
+        if (byId != null)
+        {
+            return byId;
+        }
+
+        final Integer byTag = (tag == null ? null : tagRules.get(tag.toLowerCase()));
+        if (byTag != null)
+        {
+            return byTag;
+        }
+
+        if (size != null && weaponSizeRules[size.ordinal()] != NO_RULE)
+        {
+            return weaponSizeRules[size.ordinal()];
+        }
+
+        return (int) (stackSize * OmniFacSettings.getMaxStacksPerWeapon());
+    }
+
+    private static int addSlot(int limit)
+    {
+        if (numSlots == limits.length)
+        {
+            limits = Arrays.copyOf(limits, numSlots * 2);
+        }
+
+        limits[numSlots] = limit;
+        return numSlots++;
+    }
+
+    /** Returns the settings version slots were last assigned for. */
+    static int getSlotVersion()
+    {
+        if (slotVersion != OmniFacSettings.getVersion())
+        {
+            clearSlots();
+        }
+
+        return slotVersion;
+    }
+
+    static int getShipSlot(String id, int hullSize)
+    {
+        getSlotVersion();
+        Integer slot = shipSlots.get(id);
+        if (slot == null)
+        {
+            slot = addSlot(getShipLimit(id, hullSize));
+            shipSlots.put(id, slot);
+        }
+
+        return slot;
+    }
+
+    static int getWeaponSlot(String id, WeaponSize size, String tag, int stackSize)
+    {
+        getSlotVersion();
+        Integer slot = weaponSlots.get(id);
+        if (slot == null)
+        {
+            slot = addSlot(getWeaponLimit(id, size, tag, stackSize));
+            weaponSlots.put(id, slot);
+        }
+
+        return slot;
+    }
+
+    static int get(int slot)
+    {
+        return limits[slot];
+    }
+
+    private LimitTable()
+    {
+    }
+}
@@ -0,0 +1,207 @@
+package org.lazywizard.omnifac;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import com.fs.starfarer.api.campaign.CargoAPI;
+import com.fs.starfarer.api.campaign.CargoStackAPI;
+import com.fs.starfarer.api.fleet.FleetMemberAPI;
+import org.lazywizard.omnifac.OmniFac.BlueprintCategory;
+import org.lazywizard.omnifac.OmniFac.BlueprintData;
+
+/**
+ * A rough estimate of how much heap a single Omnifactory is holding on to,
+ * built from object counts and typical object sizes on a 64-bit JVM with
+ * compressed pointers. Nothing is measured, so it is cheap enough to run in
+ * game, but the numbers are only good for comparing where memory goes.
+ *
+ * @author LazyWizard
+ */
+public class MemoryReport
+{
+    // Estimated sizes in bytes, including object headers and padding
+    private static final int SHIP_DATA_BYTES = 72, SHIP_DEFINITION_BYTES = 32;
+    private static final int WEAPON_DATA_BYTES = 72, WEAPON_DEFINITION_BYTES = 40;
+    // Catalog snapshot entries plus the state index's map entries and sets
+    private static final int INDEX_BYTES_PER_BLUEPRINT = 160;
+    // One LinkedHashSet entry per distinct 1-3 character sequence
+    private static final int SEARCH_BYTES_PER_GRAM = 40;
+    // A mothballed hull, its variant and its stats; varies a lot with the hull
+    private static final int FLEET_MEMBER_BYTES = 3072;
+    private static final int CARGO_STACK_BYTES = 96;
+    private static final int LEDGER_BYTES_PER_ENTRY = 9, LEDGER_BYTES_PER_BLUEPRINT = 16;
+    private final OmniFac factory;
+    private final Map<String, Long> byBlueprint = new HashMap<>();
+    private long blueprintBytes, indexBytes, ledgerBytes, cargoBytes, storageBytes;
+    private int numBlueprints, numHulls, numStacks, numStoredHulls, numStoredStacks;
+
+    private MemoryReport(OmniFac factory)
+    {
+        this.factory = factory;
+    }
+
+    // Java 7 strings: the String itself plus a separate char array
+    private static int getStringBytes(String str)
+    {
+        return (str == null ? 0 : 24 + align(16 + 2 * str.length()));
+    }
+
+    private static int align(int bytes)
+    {
+        return (bytes + 7) & ~7;
+    }
+
+    // Distinct sequences are fewer than this, so it slightly overestimates
+    private static int getNumGrams(String str)
+    {
+        final int length = (str == null ? 0 : str.length());
+        return Math.max(0, 3 * length - 3);
+    }
+
+    private void add(String id, long bytes)
+    {
+        final Long total = byBlueprint.get(id);
+        byBlueprint.put(id, (total == null ? bytes : total + bytes));
+    }
+
+    public static MemoryReport estimate(OmniFac factory)
+    {
+        final MemoryReport report = new MemoryReport(factory);
+        report.countBlueprints();
+        report.countCargo();
+        return report;
+    }
+
+    private void countBlueprints()
+    {
+        final boolean hasSearchIndex = factory.isSearchIndexBuilt();
+        for (Iterator<BlueprintData> iter = factory.getAllBlueprints(); iter.hasNext();)
+        {
+            final BlueprintData data = iter.next();
+            final boolean isWeapon = (data.getCategory() == BlueprintCategory.WEAPON);
+            final long bytes = (isWeapon ? WEAPON_DATA_BYTES + WEAPON_DEFINITION_BYTES
+                    : SHIP_DATA_BYTES + SHIP_DEFINITION_BYTES)
+                    + getStringBytes(data.getId()) + getStringBytes(data.getDisplayName());
+            numBlueprints++;
+            blueprintBytes += bytes;
+            indexBytes += INDEX_BYTES_PER_BLUEPRINT;
+            if (hasSearchIndex)
+            {
+                indexBytes += SEARCH_BYTES_PER_GRAM * (getNumGrams(data.getId())
+                        + getNumGrams(data.getDisplayName()));
+            }
+
+            add(data.getId(), bytes);
+        }
+
+        final ProductionLedger ledger = factory.getLedger();
+        ledgerBytes = (long) ledger.getCapacity() * LEDGER_BYTES_PER_ENTRY;
+        for (String id : ledger.getTrackedBlueprints())
+        {
+            ledgerBytes += LEDGER_BYTES_PER_BLUEPRINT + getStringBytes(id);
+        }
+    }
+
+    private void countCargo()
+    {
+        // One pass over each cargo, rather than asking every blueprint its total
+        final CargoAPI cargo = factory.getOwnCargo();
+        for (FleetMemberAPI member : cargo.getMothballedShips().getMembersListCopy())
+        {
+            numHulls++;
+            cargoBytes += FLEET_MEMBER_BYTES;
+            add(OmniFac.parseHullName(member), FLEET_MEMBER_BYTES);
+        }
+
+        for (CargoStackAPI stack : cargo.getStacksCopy())
+        {
+            numStacks++;
+            cargoBytes += CARGO_STACK_BYTES;
+            if (stack.isWeaponStack())
+            {
+                add((String) stack.getData(), CARGO_STACK_BYTES);
+            }
+        }
+
+        final CargoAPI storage = factory.getStorageCargo();
+        numStoredHulls = storage.getMothballedShips().getMembersListCopy().size();
+        numStoredStacks = storage.getStacksCopy().size();
+        storageBytes = (long) numStoredHulls * FLEET_MEMBER_BYTES
+                + (long) numStoredStacks * CARGO_STACK_BYTES;
+    }
+
+    public long getTotalBytes()
+    {
+        return blueprintBytes + indexBytes + ledgerBytes + cargoBytes + storageBytes;
+    }
+
+    /** Returns the ids of the blueprints costing the most memory, largest first. */
+    public List<String> getTopBlueprints(int max)
+    {
+        final List<String> ids = new ArrayList<>(byBlueprint.keySet());
+        Collections.sort(ids, new Comparator<String>()
+        {
+            @Override
+            public int compare(String o1, String o2)
+            {
+                return Long.compare(byBlueprint.get(o2), byBlueprint.get(o1));
+            }
+        });
+
+        return (ids.size() > max ? ids.subList(0, max) : ids);
+    }
+
+    public long getBlueprintBytes(String id)
+    {
+        final Long bytes = byBlueprint.get(id);
+        return (bytes == null ? 0L : bytes);
+    }
+
+    private static String format(long bytes)
+    {
+        if (bytes < 1024L)
+        {
+            return bytes + " B";
+        }
+
+        if (bytes < 1024L * 1024L)
+        {
+            return String.format("%.1f KB", bytes / 1024f);
+        }
+
+        return String.format("%.1f MB", bytes / (1024f * 1024f));
+    }
+
+    public List<String> getReport()
+    {
+        final List<String> lines = new ArrayList<>();
+        lines.add("Estimated total: " + format(getTotalBytes()) + " ("
+                + format(numBlueprints == 0 ? 0L : getTotalBytes() / numBlueprints)
+                + " per blueprint)");
+        lines.add("Blueprints: " + format(blueprintBytes) + " for " + numBlueprints
+                + " blueprints, including ids and names"
+                + (OmniFacSettings.isNetworked() ? " (definitions shared by all factories)" : ""));
+        lines.add("Indexes: " + format(indexBytes)
+                + (factory.isSearchIndexBuilt() ? ", including search" : ""));
+        lines.add("Ledger: " + format(ledgerBytes));
+        lines.add("Produced goods: " + format(cargoBytes) + " for " + numHulls
+                + " hulls and " + numStacks + " cargo stacks");
+        lines.add("Storage: " + format(storageBytes) + " for " + numStoredHulls
+                + " hulls and " + numStoredStacks + " cargo stacks");
+        final List<String> top = getTopBlueprints(5);
+        if (!top.isEmpty())
+        {
+            lines.add("Largest blueprints (including stock):");
+            for (String id : top)
+            {
+                lines.add("  " + id + ": " + format(getBlueprintBytes(id)));
+            }
+        }
+
+        return lines;
+    }
+}
@@ -0,0 +1,243 @@
+package org.lazywizard.omnifac;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.apache.log4j.Logger;
+
+/**
+ * Appends one row of production statistics per factory per interval to a
+ * local file, for spotting trends over long campaigns. Rows are written by a
+ * background thread through a fixed-size queue, so the game thread never
+ * waits on the disk and a stalled writer can't use more than a bounded amount
+ * of memory (rows that don't fit are dropped and counted).
+ * <p>
+ * Enabled with the "metricsFormat" setting. When disabled, factories don't
+ * collect anything and no thread is started.
+ *
+ * @author LazyWizard
+ */
+class MetricsSink
+{
+    private static final Logger Log = Logger.getLogger(MetricsSink.class);
+    private static final int MAX_QUEUED_ROWS = 1024;
+    private static final String CSV_HEADER = "timestamp,factory,day,blueprints,"
+            + "units_produced,analyses_completed,blueprint_days_at_limit,"
+            + "upkeep_shortfall_days,heartbeat_avg_us,heartbeat_max_us";
+    private static final String[] PROMETHEUS_NAMES =
+    {
+        "omnifac_day", "omnifac_blueprints", "omnifac_units_produced",
+        "omnifac_analyses_completed", "omnifac_blueprint_days_at_limit",
+        "omnifac_upkeep_shortfall_days",
+        "omnifac_heartbeat_avg_microseconds", "omnifac_heartbeat_max_microseconds"
+    };
+    private static final BlockingQueue<Row> queue = new ArrayBlockingQueue<>(MAX_QUEUED_ROWS);
+    private static Thread writerThread = null;
+    private static volatile boolean failed = false;
+    private static int dropped = 0;
+
+    static enum Format
+    {
+        NONE,
+        CSV,
+        PROMETHEUS
+    }
+
+    static Format parseFormat(String format)
+    {
+        switch (format.toLowerCase())
+        {
+            case "csv":
+                return Format.CSV;
+            case "prometheus":
+                return Format.PROMETHEUS;
+            default:
+                return Format.NONE;
+        }
+    }
+
+    private static synchronized void startWriter()
+    {
+        if (writerThread == null)
+        {
+            writerThread = new Thread(new RowWriter(), "Omnifactory metrics writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+    }
+
+    // Never blocks; if the writer has fallen this far behind the row is dropped
+    private static void submit(Row row)
+    {
+        if (failed)
+        {
+            return;
+        }
+
+        startWriter();
+        if (!queue.offer(row))
+        {
+            if (dropped++ == 0)
+            {
+                Log.warn("Metrics writer can't keep up, dropping rows");
+            }
+        }
+    }
+
+    /**
+     * A single factory's totals since its last row. Only created while
+     * metrics are enabled.
+     */
+    static class Counters
+    {
+        int days, unitsProduced, analysesCompleted, daysAtLimit, shortfallDays;
+        long heartbeatNanos, maxHeartbeatNanos;
+
+        void recordHeartbeat(boolean metRequirements, int numAtLimit, long nanos)
+        {
+            days++;
+            daysAtLimit += numAtLimit;
+            if (!metRequirements)
+            {
+                shortfallDays++;
+            }
+
+            heartbeatNanos += nanos;
+            maxHeartbeatNanos = Math.max(maxHeartbeatNanos, nanos);
+        }
+
+        // Queues a row and resets if at least interval days have passed
+        void flushIfDue(Format format, int interval, long timestamp, String factory,
+                int day, int blueprints)
+        {
+            if (days < interval)
+            {
+                return;
+            }
+
+            submit(new Row(format, timestamp, factory, new long[]
+            {
+                day, blueprints, unitsProduced, analysesCompleted, daysAtLimit,
+                shortfallDays, heartbeatNanos / days / 1000L, maxHeartbeatNanos / 1000L
+            }));
+
+            days = unitsProduced = analysesCompleted = daysAtLimit = shortfallDays = 0;
+            heartbeatNanos = maxHeartbeatNanos = 0L;
+        }
+    }
+
+    private static class Row
+    {
+        private final Format format;
+        private final long timestamp;
+        private final String factory;
+        // In CSV_HEADER and PROMETHEUS_NAMES order
+        private final long[] values;
+
+        private Row(Format format, long timestamp, String factory, long[] values)
+        {
+            this.format = format;
+            this.timestamp = timestamp;
+            this.factory = factory;
+            this.values = values;
+        }
+    }
+
+    private static class RowWriter implements Runnable
+    {
+        private Format openFormat = null;
+        private Writer out = null;
+
+        private void open(Format format) throws IOException
+        {
+            if (out != null)
+            {
+                out.close();
+            }
+
+            final File file = new File(Constants.METRICS_DIR + (format == Format.CSV
+                    ? Constants.METRICS_CSV_FILE : Constants.METRICS_PROMETHEUS_FILE));
+            file.getParentFile().mkdirs();
+            final boolean isNew = !file.exists() || file.length() == 0;
+            out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file, true), StandardCharsets.UTF_8));
+            openFormat = format;
+            if (isNew && format == Format.CSV)
+            {
+                out.write(CSV_HEADER);
+                out.write('\n');
+            }
+        }
+
+        private void write(Row row) throws IOException
+        {
+            if (row.format != openFormat)
+            {
+                open(row.format);
+            }
+
+            if (row.format == Format.CSV)
+            {
+                out.write(Long.toString(row.timestamp));
+                out.write(',');
+                out.write(row.factory);
+                for (long value : row.values)
+                {
+                    out.write(',');
+                    out.write(Long.toString(value));
+                }
+
+                out.write('\n');
+                return;
+            }
+
+            // Prometheus text exposition format, with the game time as the timestamp
+            for (int x = 0; x < PROMETHEUS_NAMES.length; x++)
+            {
+                out.write(PROMETHEUS_NAMES[x] + "{factory=\"" + row.factory + "\"} "
+                        + row.values[x] + " " + row.timestamp + "\n");
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while (true)
+                {
+                    write(queue.take());
+
+                    // Only hit the disk once the queue has been drained
+                    Row next;
+                    while ((next = queue.poll()) != null)
+                    {
+                        write(next);
+                    }
+
+                    out.flush();
+                }
+            }
+            catch (IOException ex)
+            {
+                Log.error("Failed to write Omnifactory metrics, metrics disabled", ex);
+                failed = true;
+                queue.clear();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private MetricsSink()
+    {
+    }
+}
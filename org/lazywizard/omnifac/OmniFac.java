@@ -4,11 +4,15 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import com.fs.starfarer.api.Global;
 import com.fs.starfarer.api.campaign.CampaignClockAPI;
 import com.fs.starfarer.api.campaign.CargoAPI;
+import com.fs.starfarer.api.campaign.CargoAPI.CargoItemType;
 import com.fs.starfarer.api.campaign.CargoStackAPI;
 import com.fs.starfarer.api.campaign.LocationAPI;
 import com.fs.starfarer.api.campaign.OrbitAPI;
@@ -16,15 +20,22 @@ import com.fs.starfarer.api.campaign.SectorEntityToken;
 import com.fs.starfarer.api.campaign.SubmarketPlugin.TransferAction;
 import com.fs.starfarer.api.campaign.econ.MarketAPI;
 import com.fs.starfarer.api.campaign.econ.SubmarketAPI;
-import com.fs.starfarer.api.combat.ShipHullSpecAPI;
+import com.fs.starfarer.api.combat.ShipAPI.HullSize;
+import com.fs.starfarer.api.combat.ShipVariantAPI;
+import com.fs.starfarer.api.combat.WeaponAPI.WeaponSize;
+import com.fs.starfarer.api.fleet.FleetDataAPI;
 import com.fs.starfarer.api.fleet.FleetMemberAPI;
 import com.fs.starfarer.api.fleet.FleetMemberType;
 import com.fs.starfarer.api.impl.campaign.ids.Submarkets;
 import com.fs.starfarer.api.impl.campaign.submarkets.StoragePlugin;
 import com.fs.starfarer.api.loading.WeaponSpecAPI;
+import org.apache.log4j.Level;
 import org.lazywizard.lazylib.CollectionUtils;
-import org.lazywizard.lazylib.campaign.CargoUtils;
 import org.lazywizard.lazylib.campaign.MessageUtils;
+import org.lazywizard.omnifac.BlueprintLibrary.Definition;
+import org.lazywizard.omnifac.BlueprintLibrary.ShipDefinition;
+import org.lazywizard.omnifac.BlueprintLibrary.WeaponDefinition;
+import org.lazywizard.omnifac.ProductionEvent.EventType;
 
 public class OmniFac extends StoragePlugin
 {
@@ -33,7 +44,33 @@ public class OmniFac extends StoragePlugin
     private SectorEntityToken station;
     private long lastHeartbeat;
     private int numHeartbeats = 0;
+    private int catalogVersion = 0;
     private boolean warnedRequirements = true;
+    // Created on first use, factories from older saves don't have one
+    private ProductionLedger ledger;
+    // Cached trade screen verdicts, only valid for the catalog/settings they were built with
+    private transient Map<String, Legality> shipLegality, wepLegality;
+    private transient int legalityCatalogVersion, legalitySettingsVersion;
+    private transient volatile BlueprintIndex index;
+    private transient StateIndex stateIndex;
+    // Due days depend on production times, so the state index is rebuilt if they change
+    private transient int stateSettingsVersion;
+    // Reused each heartbeat for the blueprints due that day
+    private transient List<BlueprintData> due;
+    // Anything handed the cargo (the trade screen, other mods, scripts) may
+    // change it, so it's only searched for new goods after getCargo() was
+    // called; the factory's own work goes through getOwnCargo() instead
+    private transient boolean cargoChecked;
+    private transient int cargoSettingsVersion;
+    // Hulls and wings in the cargo by id, counted once and then kept in step
+    // with production until the cargo is next handed out
+    private transient Map<String, Integer> shipStock;
+    private transient SearchIndex searchIndex;
+    private transient EventQueue events;
+    private transient HeartbeatRecorder recorder;
+    private transient List<String> unresolved;
+    // Only non-null while the "metricsFormat" setting is enabled
+    private transient MetricsSink.Counters metrics;
 
     @Override
     public void init(SubmarketAPI submarket)
@@ -104,10 +141,47 @@ public class OmniFac extends StoragePlugin
 
         return factories;
     }
+
+    @SuppressWarnings("unchecked")
+    private static List<OmniFacListener> getListeners(boolean createIfMissing)
+    {
+        final Map<String, Object> data = Global.getSector().getPersistentData();
+        List<OmniFacListener> listeners = (List<OmniFacListener>) data.get(Constants.LISTENERS_DATA_ID);
+        if (listeners == null && createIfMissing)
+        {
+            listeners = new ArrayList<>();
+            data.put(Constants.LISTENERS_DATA_ID, listeners);
+        }
+
+        return listeners;
+    }
+
+    /**
+     * Registers a listener for production events from every Omnifactory in
+     * the current sector. Listeners are saved with the sector, so this only
+     * needs to be called once (for example, in your mod's onNewGame()).
+     */
+    public static void addListener(OmniFacListener listener)
+    {
+        final List<OmniFacListener> listeners = getListeners(true);
+        if (!listeners.contains(listener))
+        {
+            listeners.add(listener);
+        }
+    }
+
+    public static void removeListener(OmniFacListener listener)
+    {
+        final List<OmniFacListener> listeners = getListeners(false);
+        if (listeners != null)
+        {
+            listeners.remove(listener);
+        }
+    }
     //</editor-fold>
 
     //<editor-fold desc="Omnifactory local data">
-    private static String parseHullName(FleetMemberAPI ship)
+    static String parseHullName(FleetMemberAPI ship)
     {
         return (ship.isFighterWing() ? ship.getSpecId() : ship.getHullId());
     }
@@ -133,39 +207,170 @@ public class OmniFac extends StoragePlugin
         return OmniFacSettings.getRestrictedWeapons().contains(stack.getData());
     }
 
+    // Indexes are rebuilt on first use after a save is loaded
+    BlueprintIndex getIndex()
+    {
+        if (index == null)
+        {
+            // Only published once complete, for readers on other threads
+            final BlueprintIndex tmp = new BlueprintIndex(catalogVersion);
+            for (Iterator<BlueprintData> iter = getAllBlueprints(); iter.hasNext();)
+            {
+                addToIndex(tmp, catalogVersion, iter.next());
+            }
+
+            index = tmp;
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns an immutable snapshot of every blueprint this factory knows.
+     * Snapshots can be kept and read from any thread; compare
+     * {@link CatalogSnapshot#getVersion()} to tell if the catalog changed.
+     */
+    public CatalogSnapshot getCatalog()
+    {
+        return getIndex().getSnapshot();
+    }
+
+    /**
+     * Returns a sorted, immutable list of the ids of all known non-fighter
+     * hulls. Use {@link List#subList(int, int)} to page through it.
+     */
     public List<String> getKnownShips()
     {
-        List<String> knownShips = new ArrayList<>(shipData.size());
+        return getIndex().getShips();
+    }
 
-        for (ShipData data : shipData.values())
+    public List<String> getKnownShips(HullSize size)
+    {
+        return getIndex().getShips(size);
+    }
+
+    public List<String> getKnownWings()
+    {
+        return getIndex().getWings();
+    }
+
+    public List<String> getKnownWeapons()
+    {
+        return getIndex().getWeapons();
+    }
+
+    public List<String> getKnownWeapons(WeaponSize size)
+    {
+        return getIndex().getWeapons(size);
+    }
+
+    StateIndex getStateIndex()
+    {
+        if (stateIndex == null || stateSettingsVersion != OmniFacSettings.getVersion())
         {
-            if (data.size > 1)
+            stateIndex = new StateIndex();
+            stateSettingsVersion = OmniFacSettings.getVersion();
+            for (Iterator<BlueprintData> iter = getAllBlueprints(); iter.hasNext();)
             {
-                knownShips.add(data.id);
+                stateIndex.update(iter.next());
             }
         }
 
-        return knownShips;
+        return stateIndex;
     }
 
-    public List<String> getKnownWings()
+    // Called whenever a blueprint's state or last update changes
+    private void updateState(BlueprintData data)
+    {
+        if (stateIndex != null)
+        {
+            stateIndex.update(data);
+        }
+    }
+
+    /**
+     * Returns a new query over this factory's blueprints. Queries are answered
+     * from the factory's indexes and don't copy anything, so they are cheap
+     * enough to poll every frame.
+     */
+    public BlueprintQuery query()
     {
-        List<String> knownWings = new ArrayList<>(shipData.size());
+        return new BlueprintQuery(this);
+    }
 
-        for (ShipData data : shipData.values())
+    /**
+     * Finds blueprints whose name or id contains the given text, or nearly
+     * does. Exact matches are listed first.
+     *
+     * @param text       What to search for, not case sensitive.
+     * @param maxResults The maximum number of blueprints to return.
+     *
+     * @return A ranked list of at most {@code maxResults} blueprints.
+     */
+    public List<BlueprintData> search(String text, int maxResults)
+    {
+        if (searchIndex == null)
         {
-            if (data.size == 1)
+            searchIndex = new SearchIndex();
+            for (Iterator<BlueprintData> iter = getAllBlueprints(); iter.hasNext();)
             {
-                knownWings.add(data.id);
+                searchIndex.add(iter.next());
             }
         }
 
-        return knownWings;
+        return searchIndex.search(text, maxResults);
     }
 
-    public List<String> getKnownWeapons()
+    // The search index is only built once something has been searched for
+    boolean isSearchIndexBuilt()
     {
-        return new ArrayList<>(wepData.keySet());
+        return (searchIndex != null);
+    }
+
+    /**
+     * Returns the number of days until a blueprint finishes analysis, next
+     * tries to produce a unit, or (if quarantined) is checked again.
+     */
+    public int getDaysUntilDue(BlueprintData data)
+    {
+        return Math.max(0, StateIndex.getDueDay(data) - numHeartbeats);
+    }
+
+    // The factory's internal clock, in days where its requirements were met
+    int getCurrentDay()
+    {
+        return numHeartbeats;
+    }
+
+    int getNumBlueprints()
+    {
+        return shipData.size() + wepData.size();
+    }
+
+    Iterator<BlueprintData> getAllBlueprints()
+    {
+        final Iterator<ShipData> ships = shipData.values().iterator();
+        final Iterator<WeaponData> weps = wepData.values().iterator();
+        return new Iterator<BlueprintData>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return ships.hasNext() || weps.hasNext();
+            }
+
+            @Override
+            public BlueprintData next()
+            {
+                return (ships.hasNext() ? ships.next() : weps.next());
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
     public BlueprintData getShipBlueprint(String hullOrWingId)
@@ -178,6 +383,88 @@ public class OmniFac extends StoragePlugin
         return wepData.get(weaponId);
     }
 
+    private void addShipBlueprint(ShipData data)
+    {
+        shipData.put(data.getId(), data);
+        blueprintAdded(data);
+    }
+
+    private void addWeaponBlueprint(WeaponData data)
+    {
+        wepData.put(data.getId(), data);
+        blueprintAdded(data);
+    }
+
+    private void removeShipBlueprint(String hullOrWingId)
+    {
+        final ShipData data = shipData.remove(hullOrWingId);
+        if (data != null)
+        {
+            blueprintRemoved(data);
+        }
+    }
+
+    private void removeWeaponBlueprint(String weaponId)
+    {
+        final WeaponData data = wepData.remove(weaponId);
+        if (data != null)
+        {
+            blueprintRemoved(data);
+        }
+    }
+
+    private static void addToIndex(BlueprintIndex index, int version, BlueprintData data)
+    {
+        if (data.getCategory() == BlueprintCategory.WEAPON)
+        {
+            index.addWeapon(version, data.getId(), data.getWeaponSize());
+        }
+        else
+        {
+            index.addShip(version, data.getId(), data.getHullSize());
+        }
+    }
+
+    // Keeps the indexes in step with the catalog, whatever kind of good changed
+    private void blueprintAdded(BlueprintEntry data)
+    {
+        catalogVersion++;
+        addToIndex(getIndex(), catalogVersion, data);
+        updateState(data);
+        if (searchIndex != null)
+        {
+            searchIndex.add(data);
+        }
+
+        if (recorder != null)
+        {
+            recordBlueprint(true, data);
+        }
+    }
+
+    private void blueprintRemoved(BlueprintEntry data)
+    {
+        catalogVersion++;
+        if (data.getCategory() == BlueprintCategory.WEAPON)
+        {
+            getIndex().removeWeapon(catalogVersion, data.getId(), data.getWeaponSize());
+        }
+        else
+        {
+            getIndex().removeShip(catalogVersion, data.getId(), data.getHullSize());
+        }
+
+        if (stateIndex != null)
+        {
+            stateIndex.remove(data);
+        }
+
+        if (searchIndex != null)
+        {
+            searchIndex.remove(data);
+        }
+    }
+
     public SubmarketAPI getStorageMarket()
     {
         if (!market.hasSubmarket(Submarkets.SUBMARKET_STORAGE))
@@ -196,6 +483,25 @@ public class OmniFac extends StoragePlugin
         return getCargo();
     }
 
+    @Override
+    public CargoAPI getCargo()
+    {
+        cargoChanged();
+        return super.getCargo();
+    }
+
+    // The cargo without marking it as changed, for the factory's own use
+    CargoAPI getOwnCargo()
+    {
+        return super.getCargo();
+    }
+
+    private void cargoChanged()
+    {
+        cargoChecked = false;
+        shipStock = null;
+    }
+
     public CargoAPI getStorageCargo()
     {
         return getStorageMarket().getCargo();
@@ -227,11 +533,443 @@ public class OmniFac extends StoragePlugin
     }
     //</editor-fold>
 
+    //<editor-fold desc="Load-time validation">
+    /**
+     * Checks every known blueprint against the hulls, wings and weapons the
+     * game has loaded. Missing blueprints are quarantined before the first
+     * heartbeat so production never has to fail on them, and quarantined
+     * blueprints whose mod has returned are released immediately.
+     *
+     * @return The number of blueprints that couldn't be found.
+     */
+    int validateBlueprints()
+    {
+        // Build the indexes here on the game thread, not in whichever reader asks first
+        getIndex();
+        unresolved = new ArrayList<>();
+        final List<String> released = new ArrayList<>();
+        for (Iterator<BlueprintData> iter = getAllBlueprints(); iter.hasNext();)
+        {
+            final BlueprintData tmp = iter.next();
+            final boolean isQuarantined = (tmp.getState() == BlueprintState.QUARANTINED);
+            if (SpecRegistry.isResolvable(tmp))
+            {
+                if (isQuarantined)
+                {
+                    tmp.release();
+                    released.add(tmp.getId());
+                }
+
+                continue;
+            }
+
+            unresolved.add(tmp.getDisplayName() + " (" + tmp.getId() + ")");
+            if (!isQuarantined)
+            {
+                tmp.quarantine(numHeartbeats
+                        + ProductionEngine.getQuarantineDays(tmp.getFailures() + 1));
+            }
+        }
+
+        Collections.sort(unresolved);
+        if (!unresolved.isEmpty())
+        {
+            Global.getLogger(OmniFac.class).log(Level.WARN, station.getName() + " has "
+                    + unresolved.size() + " blueprints that couldn't be found, quarantined: "
+                    + CollectionUtils.implode(unresolved));
+        }
+        if (!released.isEmpty())
+        {
+            Global.getLogger(OmniFac.class).log(Level.INFO, station.getName()
+                    + " released quarantined blueprints: " + CollectionUtils.implode(released));
+        }
+
+        return unresolved.size();
+    }
+
+    /**
+     * Returns this factory's recent production history and per-blueprint
+     * totals. The ledger is live and only valid on the game thread.
+     */
+    public ProductionLedger getLedger()
+    {
+        if (ledger == null)
+        {
+            ledger = new ProductionLedger();
+        }
+
+        return ledger;
+    }
+
+    /**
+     * Returns the blueprints that couldn't be found when this save was
+     * loaded, usually because the mod that added them was disabled.
+     *
+     * @return A sorted, read-only list of "name (id)" strings.
+     */
+    public List<String> getUnresolvedBlueprints()
+    {
+        if (unresolved == null)
+        {
+            return Collections.<String>emptyList();
+        }
+
+        return Collections.unmodifiableList(unresolved);
+    }
+    //</editor-fold>
+
+    //<editor-fold desc="Blueprint network">
+    /**
+     * Brings every factory in line with the shared blueprint library, or
+     * gives each factory back its own copy of every definition if networking
+     * has been disabled since the last save. Called once after a save is
+     * loaded, before blueprints are validated.
+     */
+    static void syncNetwork()
+    {
+        final List<OmniFac> factories = getAllFactories();
+        if (!OmniFacSettings.isNetworked())
+        {
+            if (BlueprintLibrary.hasNetworkLibrary())
+            {
+                for (OmniFac factory : factories)
+                {
+                    factory.leaveNetwork();
+                }
+
+                BlueprintLibrary.removeNetworkLibrary();
+            }
+
+            return;
+        }
+
+        // Pool every factory's blueprints first, so the second pass can
+        // teach each factory everything the others know
+        final BlueprintLibrary library = BlueprintLibrary.getNetworkLibrary();
+        for (OmniFac factory : factories)
+        {
+            factory.joinNetwork(library);
+        }
+
+        for (OmniFac factory : factories)
+        {
+            factory.learnFromNetwork(library);
+        }
+    }
+
+    // Swaps this factory's definitions for the library's, where it has one
+    private void joinNetwork(BlueprintLibrary library)
+    {
+        for (ShipData tmp : shipData.values())
+        {
+            final ShipDefinition shared = library.ships.get(tmp.id);
+            if (shared == null)
+            {
+                library.ships.put(tmp.id, tmp.getDefinition());
+            }
+            else if (shared != tmp.getDefinition())
+            {
+                shared.isAnalyzed |= tmp.getDefinition().isAnalyzed;
+                tmp.def = shared;
+                updateState(tmp);
+            }
+        }
+
+        for (WeaponData tmp : wepData.values())
+        {
+            final WeaponDefinition shared = library.weapons.get(tmp.id);
+            if (shared == null)
+            {
+                library.weapons.put(tmp.id, tmp.getDefinition());
+            }
+            else if (shared != tmp.getDefinition())
+            {
+                shared.isAnalyzed |= tmp.getDefinition().isAnalyzed;
+                tmp.def = shared;
+                updateState(tmp);
+            }
+        }
+    }
+
+    private void learnFromNetwork(BlueprintLibrary library)
+    {
+        for (ShipDefinition def : library.ships.values())
+        {
+            if (!shipData.containsKey(def.id))
+            {
+                learnShared(def);
+            }
+        }
+
+        for (WeaponDefinition def : library.weapons.values())
+        {
+            if (!wepData.containsKey(def.id))
+            {
+                learnShared(def);
+            }
+        }
+    }
+
+    private void leaveNetwork()
+    {
+        for (ShipData tmp : shipData.values())
+        {
+            tmp.def = tmp.getDefinition().copy();
+        }
+
+        for (WeaponData tmp : wepData.values())
+        {
+            tmp.def = tmp.getDefinition().copy();
+        }
+    }
+
+    // Blueprints learned elsewhere keep their analysis, but production here
+    // is timed from when this factory learned them
+    private void learnShared(ShipDefinition def)
+    {
+        final ShipData tmp = new ShipData(def);
+        addShipBlueprint(tmp);
+        getEvents().add(EventType.BLUEPRINT_INGESTED, tmp, numHeartbeats);
+    }
+
+    private void learnShared(WeaponDefinition def)
+    {
+        final WeaponData tmp = new WeaponData(def);
+        addWeaponBlueprint(tmp);
+        getEvents().add(EventType.BLUEPRINT_INGESTED, tmp, numHeartbeats);
+    }
+
+    private void shareWithNetwork(ShipData tmp)
+    {
+        final ShipDefinition def = tmp.getDefinition();
+        BlueprintLibrary.getNetworkLibrary().ships.put(def.id, def);
+        for (OmniFac factory : getAllFactories())
+        {
+            if (factory != this && !factory.shipData.containsKey(def.id))
+            {
+                factory.learnShared(def);
+            }
+        }
+    }
+
+    private void shareWithNetwork(WeaponData tmp)
+    {
+        final WeaponDefinition def = tmp.getDefinition();
+        BlueprintLibrary.getNetworkLibrary().weapons.put(def.id, def);
+        for (OmniFac factory : getAllFactories())
+        {
+            if (factory != this && !factory.wepData.containsKey(def.id))
+            {
+                factory.learnShared(def);
+            }
+        }
+    }
+
+    // Analysis is shared, so other factories' indexes need to see it finish
+    private void refreshNetworkState(BlueprintData data)
+    {
+        for (OmniFac factory : getAllFactories())
+        {
+            final BlueprintData tmp = (data.getCategory() == BlueprintCategory.WEAPON
+                    ? factory.wepData.get(data.getId()) : factory.shipData.get(data.getId()));
+            if (factory != this && tmp != null)
+            {
+                factory.updateState(tmp);
+            }
+        }
+    }
+    //</editor-fold>
+
+    //<editor-fold desc="Library files">
+    // Used by LibraryFile to export this factory's blueprints
+    List<ShipDefinition> getShipDefinitions()
+    {
+        final List<ShipDefinition> defs = new ArrayList<>(shipData.size());
+        for (ShipData tmp : shipData.values())
+        {
+            defs.add(tmp.getDefinition());
+        }
+
+        return defs;
+    }
+
+    List<WeaponDefinition> getWeaponDefinitions()
+    {
+        final List<WeaponDefinition> defs = new ArrayList<>(wepData.size());
+        for (WeaponData tmp : wepData.values())
+        {
+            defs.add(tmp.getDefinition());
+        }
+
+        return defs;
+    }
+
+    // Imported blueprints are treated like ones learned from another factory
+    void importBlueprint(ShipDefinition def)
+    {
+        learnShared(def);
+        if (OmniFacSettings.isNetworked())
+        {
+            shareWithNetwork(shipData.get(def.id));
+        }
+    }
+
+    void importBlueprint(WeaponDefinition def)
+    {
+        learnShared(def);
+        if (OmniFacSettings.isNetworked())
+        {
+            shareWithNetwork(wepData.get(def.id));
+        }
+    }
+    //</editor-fold>
+
     //<editor-fold desc="Heartbeat">
-    private void heartbeat()
+    private EventQueue getEvents()
+    {
+        if (events == null)
+        {
+            events = new EventQueue();
+        }
+
+        return events;
+    }
+
+    // Copied out of the index, as producing a unit moves a blueprint to a new
+    // due day while the engine is still working through the day's list.
+    // This is deliberately done on the game thread: the index already narrows
+    // each day to the few blueprints due, and everything left to decide about
+    // them needs their stock, which only the cargo can answer
+    private List<BlueprintData> getDueBlueprints(int day)
+    {
+        if (due == null)
+        {
+            due = new ArrayList<>();
+        }
+
+        due.clear();
+        final StateIndex index = getStateIndex();
+        if (index.hasDueBy(day))
+        {
+            for (Iterator<BlueprintData> iter = index.getDueBy(day); iter.hasNext();)
+            {
+                due.add(iter.next());
+            }
+        }
+
+        return due;
+    }
+
+    // Delivers everything that happened this heartbeat in a single batch
+    private void dispatchEvents()
+    {
+        if (events == null || events.isEmpty())
+        {
+            return;
+        }
+
+        final List<OmniFacListener> listeners = getListeners(false);
+        try
+        {
+            if (listeners == null)
+            {
+                return;
+            }
+
+            // Copied so listeners can add or remove listeners while being called
+            for (OmniFacListener listener : new ArrayList<>(listeners))
+            {
+                // A broken listener shouldn't stop the factory or the other listeners
+                try
+                {
+                    listener.reportProductionEvents(this, events);
+                }
+                catch (RuntimeException ex)
+                {
+                    Global.getLogger(OmniFac.class).log(Level.ERROR, "Listener "
+                            + listener.getClass().getName() + " failed to handle "
+                            + station.getName() + "'s production events", ex);
+                }
+            }
+        }
+        finally
+        {
+            events.reset();
+        }
+    }
+
+    // Starts recording if enabled, beginning with a snapshot of the catalog
+    private void updateRecorder()
+    {
+        if (!OmniFacSettings.shouldRecordHeartbeats())
+        {
+            if (recorder != null)
+            {
+                recorder.close();
+                recorder = null;
+            }
+
+            return;
+        }
+
+        if (recorder != null)
+        {
+            return;
+        }
+
+        startRecording(new HeartbeatRecorder(market.getId()));
+    }
+
+    // Also lets checks run outside the game record into memory
+    void startRecording(HeartbeatRecorder recorder)
+    {
+        this.recorder = recorder;
+        recorder.beginCatalog(numHeartbeats, getNumBlueprints());
+        for (Iterator<BlueprintData> iter = getAllBlueprints(); iter.hasNext();)
+        {
+            recordBlueprint(false, iter.next());
+        }
+    }
+
+    private void recordBlueprint(boolean isNew, BlueprintData data)
+    {
+        if (data instanceof ShipData)
+        {
+            final ShipData tmp = (ShipData) data;
+            final ShipDefinition def = tmp.getDefinition();
+            recorder.recordBlueprint(isNew, (tmp.getCategory() == BlueprintCategory.WING
+                    ? HeartbeatRecorder.KIND_WING : HeartbeatRecorder.KIND_SHIP),
+                    tmp.id, def.size, def.fp, 0f, tmp.getLimit(), tmp.lastUpdate,
+                    def.isAnalyzed, tmp.atLimit, tmp.quarantined, tmp.failures, tmp.retryDay);
+        }
+        else
+        {
+            final WeaponData tmp = (WeaponData) data;
+            final WeaponSize size = tmp.getWeaponSize();
+            recorder.recordBlueprint(isNew, HeartbeatRecorder.KIND_WEAPON, tmp.id,
+                    (size == null ? 0 : size.ordinal()), tmp.getTier(),
+                    tmp.getDefinition().cargoSpace, tmp.getLimit(), tmp.lastUpdate,
+                    tmp.isAnalyzed(), tmp.atLimit, tmp.quarantined, tmp.failures, tmp.retryDay);
+        }
+    }
+
+    private void updateMetrics()
+    {
+        if (OmniFacSettings.getMetricsFormat() == MetricsSink.Format.NONE)
+        {
+            metrics = null;
+        }
+        else if (metrics == null)
+        {
+            metrics = new MetricsSink.Counters();
+        }
+    }
+
+    // Returns false if the factory didn't meet its requirements
+    boolean heartbeat()
     {
         boolean metRequirements = true;
-        CargoAPI cargo = getCargo();
+        CargoAPI cargo = getOwnCargo();
 
         if (cargo.getTotalCrew() < OmniFacSettings.getRequiredCrew())
         {
@@ -271,8 +1009,13 @@ public class OmniFac extends StoragePlugin
 
         if (!metRequirements)
         {
+            if (!warnedRequirements)
+            {
+                getEvents().add(EventType.REQUIREMENTS_UNMET, null, numHeartbeats);
+            }
+
             warnedRequirements = true;
-            return;
+            return false;
         }
 
         warnedRequirements = false;
@@ -280,177 +1023,282 @@ public class OmniFac extends StoragePlugin
         cargo.removeFuel(OmniFacSettings.getRequiredFuelPerDay());
         numHeartbeats++;
 
-        List<String> addedShips = new ArrayList<>();
-        List<String> addedWeps = new ArrayList<>();
-        List<String> analyzedShips = new ArrayList<>();
-        List<String> analyzedWeps = new ArrayList<>();
-        List<String> hitLimit = new ArrayList<>();
+        // Most days nothing is due, and those days shouldn't create any garbage
+        if (getDueBlueprints(numHeartbeats).isEmpty())
+        {
+            return true;
+        }
+
+        final HeartbeatResults results = new HeartbeatResults();
+        ProductionEngine.advance(due, numHeartbeats, results);
+        due.clear();
 
-        for (BlueprintData tmp : shipData.values())
+        for (BlueprintData tmp : results.broken)
         {
-            if (!tmp.isAnalyzed())
+            if (tmp.getCategory() == BlueprintCategory.WEAPON)
             {
-                if (numHeartbeats - tmp.getDaysToAnalyze() >= tmp.getLastUpdate())
-                {
-                    tmp.setAnalyzed(true);
+                removeWeaponBlueprint(tmp.getId());
+            }
+            else
+            {
+                removeShipBlueprint(tmp.getId());
+            }
 
-                    if (OmniFacSettings.shouldShowAnalysisComplete())
-                    {
-                        analyzedShips.add(tmp.getDisplayName() + " ("
-                                + tmp.getDaysToCreate() + "d)");
-                    }
-                }
+            // The shared definition stays in the network library, as other
+            // factories still point at it; each forgets it once it fails there too
+            getEvents().add(EventType.BROKEN_GOOD_REMOVED, tmp, numHeartbeats);
+        }
+
+        results.showMessages();
+        return true;
+    }
+
+    // Collects what happened to each blueprint during a heartbeat
+    private class HeartbeatResults implements ProductionEngine.Callback
+    {
+        final List<String> addedShips = new ArrayList<>();
+        final List<String> addedWeps = new ArrayList<>();
+        final List<String> analyzedShips = new ArrayList<>();
+        final List<String> analyzedWeps = new ArrayList<>();
+        final List<String> hitLimit = new ArrayList<>();
+        final List<String> quarantined = new ArrayList<>();
+        final List<String> released = new ArrayList<>();
+        // Removed after iterating, as removing mid-loop would break the iterator
+        final List<BlueprintData> broken = new ArrayList<>();
+
+        @Override
+        public void analysisComplete(BlueprintData tmp)
+        {
+            getEvents().add(EventType.ANALYSIS_COMPLETE, tmp, numHeartbeats);
+            getLedger().recordAnalyzed(tmp.getId(), numHeartbeats);
+            if (metrics != null)
+            {
+                metrics.analysesCompleted++;
             }
-            else if (numHeartbeats - tmp.getDaysToCreate() >= tmp.getLastUpdate())
+
+            if (recorder != null)
             {
-                try
-                {
-                    if (tmp.create())
-                    {
-                        if (OmniFacSettings.shouldShowAddedCargo())
-                        {
-                            addedShips.add(tmp.getDisplayName() + " (" + tmp.getTotal()
-                                    + "/" + tmp.getLimit() + ")");
-                        }
-                    }
-                    else if (OmniFacSettings.shouldShowLimitReached() && !tmp.hasWarnedLimit())
-                    {
-                        hitLimit.add(tmp.getDisplayName());
-                        tmp.setWarnedLimit(true);
-                    }
-                }
-                catch (RuntimeException ex)
-                {
-                    Global.getSector().getCampaignUI().addMessage(
-                            "Failed to create ship '" + tmp.getDisplayName() + "' ("
-                            + tmp.getId() + ")! Was a required mod disabled?");
+                recorder.observeOutcome(EventType.ANALYSIS_COMPLETE, tmp.getId());
+            }
 
-                    if (OmniFacSettings.shouldRemoveBrokenGoods())
-                    {
-                        Global.getSector().getCampaignUI().addMessage(
-                                "Removed ship '" + tmp.getDisplayName() + "' from "
-                                + station.getName() + "'s memory banks.");
-                        shipData.remove(tmp.getId());
-                    }
-                }
+            if (OmniFacSettings.shouldShowAnalysisComplete())
+            {
+                (tmp.getCategory() == BlueprintCategory.WEAPON ? analyzedWeps : analyzedShips)
+                        .add(tmp.getDisplayName() + " (" + tmp.getDaysToCreate() + "d)");
             }
         }
 
-        for (BlueprintData tmp : wepData.values())
+        @Override
+        public void unitProduced(BlueprintData tmp)
         {
-            if (!tmp.isAnalyzed())
+            getEvents().add(EventType.UNIT_PRODUCED, tmp, numHeartbeats);
+            getLedger().recordProduced(tmp.getId(), numHeartbeats);
+            if (metrics != null)
             {
-                if (numHeartbeats - tmp.getDaysToAnalyze() >= tmp.getLastUpdate())
-                {
-                    tmp.setAnalyzed(true);
+                metrics.unitsProduced++;
+            }
 
-                    if (OmniFacSettings.shouldShowAnalysisComplete())
-                    {
-                        analyzedWeps.add(tmp.getDisplayName() + " ("
-                                + tmp.getDaysToCreate() + "d)");
-                    }
-                }
+            if (recorder != null)
+            {
+                recorder.observeOutcome(EventType.UNIT_PRODUCED, tmp.getId());
             }
-            else if (numHeartbeats - tmp.getDaysToCreate() >= tmp.getLastUpdate())
+
+            if (OmniFacSettings.shouldShowAddedCargo())
             {
-                try
-                {
-                    if (tmp.create())
-                    {
-                        if (OmniFacSettings.shouldShowAddedCargo())
-                        {
-                            addedWeps.add(tmp.getDisplayName() + " (" + tmp.getTotal()
-                                    + "/" + tmp.getLimit() + ")");
-                        }
-                    }
-                    else if (OmniFacSettings.shouldShowLimitReached() && !tmp.hasWarnedLimit())
-                    {
-                        hitLimit.add(tmp.getDisplayName());
-                        tmp.setWarnedLimit(true);
-                    }
-                }
-                catch (RuntimeException ex)
-                {
-                    Global.getSector().getCampaignUI().addMessage(
-                            "Failed to create weapon '" + tmp.getDisplayName() + "' ("
-                            + tmp.getId() + ")! Was a required mod disabled?");
+                (tmp.getCategory() == BlueprintCategory.WEAPON ? addedWeps : addedShips)
+                        .add(tmp.getDisplayName() + " (" + tmp.getTotal()
+                                + "/" + tmp.getLimit() + ")");
+            }
+        }
 
-                    if (OmniFacSettings.shouldRemoveBrokenGoods())
-                    {
-                        Global.getSector().getCampaignUI().addMessage(
-                                "Removed weapon '" + tmp.getDisplayName() + "' from "
-                                + station.getName() + "'s memory banks.");
-                        wepData.remove(tmp.getId());
-                    }
-                }
+        @Override
+        public void limitReached(BlueprintData tmp, boolean wasAtLimit)
+        {
+            getLedger().recordBlocked(tmp.getId(), numHeartbeats, tmp.getDaysToCreate());
+            if (recorder != null)
+            {
+                recorder.observeOutcome(EventType.LIMIT_REACHED, tmp.getId());
+            }
+
+            if (!wasAtLimit)
+            {
+                getEvents().add(EventType.LIMIT_REACHED, tmp, numHeartbeats);
+            }
+
+            if (OmniFacSettings.shouldShowLimitReached() && !tmp.hasWarnedLimit())
+            {
+                hitLimit.add(tmp.getDisplayName());
+                tmp.setWarnedLimit(true);
+            }
+        }
+
+        @Override
+        public void creationFailed(BlueprintData tmp, RuntimeException ex)
+        {
+            getLedger().recordFailed(tmp.getId(), numHeartbeats);
+            if (recorder != null)
+            {
+                recorder.observeFailure(tmp.getId());
+            }
+
+            // Only logged once, as quarantined blueprints don't retry creation
+            // until their spec can be found again
+            Global.getLogger(OmniFac.class).log(Level.WARN, "Failed to create '"
+                    + tmp.getId() + "' at " + station.getName() + ", "
+                    + (OmniFacSettings.shouldRemoveBrokenGoods() ? "removing it"
+                            : "quarantined until day " + tmp.getRetryDay()), ex);
+            quarantined.add(tmp.getDisplayName() + " (" + tmp.getId() + ")");
+
+            if (OmniFacSettings.shouldRemoveBrokenGoods())
+            {
+                broken.add(tmp);
+            }
+            else
+            {
+                getEvents().add(EventType.BLUEPRINT_QUARANTINED, tmp, numHeartbeats);
             }
         }
 
-        if (OmniFacSettings.shouldShowAddedCargo())
+        @Override
+        public boolean isResolvable(BlueprintData tmp)
+        {
+            return SpecRegistry.isResolvable(tmp);
+        }
+
+        @Override
+        public void released(BlueprintData tmp)
+        {
+            if (recorder != null)
+            {
+                recorder.observeRelease(tmp.getId());
+            }
+
+            getEvents().add(EventType.BLUEPRINT_RELEASED, tmp, numHeartbeats);
+            released.add(tmp.getDisplayName());
+        }
+
+        private void showMessages()
         {
-            if (!addedShips.isEmpty())
+            if (!quarantined.isEmpty())
+            {
+                Collections.sort(quarantined);
+                MessageUtils.showMessage("The " + station.getName()
+                        + " failed to produce the following goods (was a required mod disabled?):",
+                        CollectionUtils.implode(quarantined) + ". "
+                        + (OmniFacSettings.shouldRemoveBrokenGoods()
+                                ? "They have been removed from its memory banks."
+                                : "Production is suspended until they can be found again."), true);
+            }
+
+            if (!released.isEmpty())
             {
-                Collections.sort(addedShips);
+                Collections.sort(released);
                 MessageUtils.showMessage("The " + station.getName()
-                        + " has produced the following ships:",
-                        CollectionUtils.implode(addedShips) + ".", true);
+                        + " has resumed production of the following goods:",
+                        CollectionUtils.implode(released) + ".", true);
+            }
+
+            if (OmniFacSettings.shouldShowAddedCargo())
+            {
+                if (!addedShips.isEmpty())
+                {
+                    Collections.sort(addedShips);
+                    MessageUtils.showMessage("The " + station.getName()
+                            + " has produced the following ships:",
+                            CollectionUtils.implode(addedShips) + ".", true);
+                }
+                if (!addedWeps.isEmpty())
+                {
+                    Collections.sort(addedWeps);
+                    MessageUtils.showMessage("The " + station.getName()
+                            + " has produced the following weapons:",
+                            CollectionUtils.implode(addedWeps) + ".", true);
+                }
             }
-            if (!addedWeps.isEmpty())
+
+            if (OmniFacSettings.shouldShowLimitReached() && !hitLimit.isEmpty())
             {
-                Collections.sort(addedWeps);
+                Collections.sort(hitLimit);
                 MessageUtils.showMessage("The " + station.getName()
-                        + " has produced the following weapons:",
-                        CollectionUtils.implode(addedWeps) + ".", true);
+                        + " has reached its limit for the following goods:",
+                        CollectionUtils.implode(hitLimit) + ".", true);
+            }
+
+            if (OmniFacSettings.shouldShowAnalysisComplete())
+            {
+                if (!analyzedShips.isEmpty())
+                {
+                    Collections.sort(analyzedShips);
+                    MessageUtils.showMessage("The " + station.getName()
+                            + " has started production for the following ships:",
+                            CollectionUtils.implode(analyzedShips) + ".", true);
+                }
+                if (!analyzedWeps.isEmpty())
+                {
+                    Collections.sort(analyzedWeps);
+                    MessageUtils.showMessage("The " + station.getName()
+                            + " has started production for the following weapons:",
+                            CollectionUtils.implode(analyzedWeps) + ".", true);
+                }
             }
         }
+    }
 
-        if (OmniFacSettings.shouldShowLimitReached() && !hitLimit.isEmpty())
-        {
-            Collections.sort(hitLimit);
-            MessageUtils.showMessage("The " + station.getName()
-                    + " has reached its limit for the following goods:",
-                    CollectionUtils.implode(hitLimit) + ".", true);
-        }
-
-        if (OmniFacSettings.shouldShowAnalysisComplete())
+    // How many of a hull or wing the cargo holds, see BlueprintData.getTotal()
+    private int countShips(String id)
+    {
+        if (shipStock == null)
         {
-            if (!analyzedShips.isEmpty())
+            shipStock = new HashMap<>();
+            for (FleetMemberAPI tmp : getOwnCargo().getMothballedShips().getMembersListCopy())
             {
-                Collections.sort(analyzedShips);
-                MessageUtils.showMessage("The " + station.getName()
-                        + " has started production for the following ships:",
-                        CollectionUtils.implode(analyzedShips) + ".", true);
-            }
-            if (!analyzedWeps.isEmpty())
-            {
-                Collections.sort(analyzedWeps);
-                MessageUtils.showMessage("The " + station.getName()
-                        + " has started production for the following weapons:",
-                        CollectionUtils.implode(analyzedWeps) + ".", true);
+                addCount(shipStock, parseHullName(tmp), 1);
             }
         }
+
+        final Integer count = shipStock.get(id);
+        return (count == null ? 0 : count);
     }
 
     public boolean checkCargo()
     {
+        // Restricted goods depend on the settings, so a reload checks again
+        if (cargoChecked && cargoSettingsVersion == OmniFacSettings.getVersion())
+        {
+            return false;
+        }
+
+        cargoChecked = true;
+        cargoSettingsVersion = OmniFacSettings.getVersion();
         boolean newItem = false;
-        final CargoAPI cargo = getCargo(),
-                storage = getStorageCargo();
+        final CargoAPI cargo = getOwnCargo();
+        final FleetDataAPI mothballed = cargo.getMothballedShips();
         final List<String> newShips = new ArrayList<>(), blockedShips = new ArrayList<>(),
-                newWeps = new ArrayList<>(), blockedWeps = new ArrayList<>();
-
-        for (FleetMemberAPI ship : cargo.getMothballedShips().getMembersListCopy())
+                newWeps = new ArrayList<>();
+        // Sorted, and a weapon is only listed once even if it came from both
+        // an existing stack and a stripped hull
+        final Set<String> blockedWeps = new TreeSet<>();
+
+        // Restricted hulls and stacks are gathered here and sent to storage
+        // together once everything has been classified
+        final List<FleetMemberAPI> blockedMembers = new ArrayList<>();
+        CargoAPI blocked = null;
+
+        // Net change in each weapon's count, applied with one cargo call per id
+        final Map<String, Integer> wepDelta = new HashMap<>();
+
+        // Pass one: classify ships, tallying the weapons stripped from new hulls
+        final Map<String, Integer> strippedWeps = new HashMap<>();
+        for (FleetMemberAPI ship : mothballed.getMembersListCopy())
         {
             if (isRestrictedShip(ship))
             {
                 blockedShips.add(ship.getHullSpec().getHullName());
-                cargo.getMothballedShips().removeFleetMember(ship);
-                storage.getMothballedShips().addFleetMember(ship);
+                blockedMembers.add(ship);
             }
             else if (isUnknownShip(ship))
             {
                 newItem = true;
-                String id = parseHullName(ship);
                 ShipData tmp = new ShipData(ship);
 
                 if (OmniFacSettings.getShipAnalysisTimeMod() == 0f)
@@ -465,48 +1313,107 @@ public class OmniFac extends StoragePlugin
                             + tmp.getDaysToAnalyze() + "d)");
                 }
 
-                shipData.put(id, tmp);
+                addShipBlueprint(tmp);
+                getEvents().add(EventType.BLUEPRINT_INGESTED, tmp, numHeartbeats);
+                if (OmniFacSettings.isNetworked())
+                {
+                    shareWithNetwork(tmp);
+                }
 
-                // Add all weapons on this ship to the station's cargo
+                // All weapons on this ship will be added to the station's cargo
                 if (!ship.isFighterWing())
                 {
-                    for (String slot : ship.getVariant().getNonBuiltInWeaponSlots())
+                    final ShipVariantAPI variant = ship.getVariant();
+                    for (String slot : variant.getNonBuiltInWeaponSlots())
                     {
-                        cargo.addWeapons(ship.getVariant().getWeaponId(slot), 1);
+                        addCount(strippedWeps, variant.getWeaponId(slot), 1);
                     }
                 }
 
-                cargo.getMothballedShips().removeFleetMember(ship);
+                mothballed.removeFleetMember(ship);
             }
         }
 
+        // Pass two: classify the weapons already in the factory's cargo
         for (CargoStackAPI stack : cargo.getStacksCopy())
         {
             if (isRestrictedWeapon(stack))
             {
                 blockedWeps.add(stack.getDisplayName());
-                CargoUtils.moveStack(stack, storage);
+                if (blocked == null)
+                {
+                    blocked = Global.getFactory().createCargo(true);
+                }
+
+                blocked.addFromStack(stack);
+                cargo.removeStack(stack);
             }
             else if (isUnknownWeapon(stack))
             {
                 newItem = true;
-                WeaponData tmp = new WeaponData(stack);
+                newWeps.add(learnWeapon(stack));
+                addCount(wepDelta, (String) stack.getData(), -1);
+            }
+        }
 
-                if (OmniFacSettings.getWeaponAnalysisTimeMod() == 0f)
-                {
-                    tmp.setAnalyzed(true);
-                    newWeps.add(tmp.getDisplayName() + " ("
-                            + tmp.getDaysToCreate() + "d)");
-                }
-                else
+        // Pass three: stripped weapons, as if they had been added to the cargo
+        for (Map.Entry<String, Integer> entry : strippedWeps.entrySet())
+        {
+            final String id = entry.getKey();
+            final int count = entry.getValue();
+            if (OmniFacSettings.getRestrictedWeapons().contains(id))
+            {
+                if (blocked == null)
                 {
-                    newWeps.add(tmp.getDisplayName() + " ("
-                            + tmp.getDaysToAnalyze() + "d)");
+                    blocked = Global.getFactory().createCargo(true);
                 }
 
-                wepData.put((String) stack.getData(), tmp);
-                cargo.removeWeapons((String) stack.getData(), 1);
+                blocked.addWeapons(id, count);
+                blockedWeps.add(Global.getSettings().getWeaponSpec(id).getWeaponName());
             }
+            else if (!wepData.containsKey(id))
+            {
+                newItem = true;
+                newWeps.add(learnWeapon(Global.getFactory().createCargoStack(
+                        CargoItemType.WEAPONS, id, null)));
+                addCount(wepDelta, id, count - 1);
+            }
+            else
+            {
+                addCount(wepDelta, id, count);
+            }
+        }
+
+        // Apply the weapon changes and restricted transfer in bulk
+        for (Map.Entry<String, Integer> entry : wepDelta.entrySet())
+        {
+            final int delta = entry.getValue();
+            if (delta > 0)
+            {
+                cargo.addWeapons(entry.getKey(), delta);
+            }
+            else if (delta < 0)
+            {
+                cargo.removeWeapons(entry.getKey(), -delta);
+            }
+        }
+
+        if (!blockedMembers.isEmpty())
+        {
+            final FleetDataAPI storage = getStorageCargo().getMothballedShips();
+            for (FleetMemberAPI ship : blockedMembers)
+            {
+                mothballed.removeFleetMember(ship);
+                storage.addFleetMember(ship);
+            }
+        }
+
+        // Hulls may have been taken apart or sent to storage
+        shipStock = null;
+
+        if (blocked != null)
+        {
+            getStorageCargo().addAll(blocked);
         }
 
         if (!newShips.isEmpty())
@@ -558,7 +1465,6 @@ public class OmniFac extends StoragePlugin
         if (!blockedWeps.isEmpty())
         {
             movedItems = true;
-            Collections.sort(blockedWeps);
             MessageUtils.showMessage("The " + station.getName()
                     + " is unable to replicate the following weapons:",
                     CollectionUtils.implode(blockedWeps) + ".", true);
@@ -573,6 +1479,40 @@ public class OmniFac extends StoragePlugin
         return newItem;
     }
 
+    // Adds an unknown weapon to the factory's memory banks
+    String learnWeapon(CargoStackAPI stack)
+    {
+        WeaponData tmp = new WeaponData(stack);
+        final String result;
+
+        // Analyzed before it's added, same as ships, so the index, the event
+        // log and any networked factories all see the finished blueprint
+        if (OmniFacSettings.getWeaponAnalysisTimeMod() == 0f)
+        {
+            tmp.setAnalyzed(true);
+            result = tmp.getDisplayName() + " (" + tmp.getDaysToCreate() + "d)";
+        }
+        else
+        {
+            result = tmp.getDisplayName() + " (" + tmp.getDaysToAnalyze() + "d)";
+        }
+
+        addWeaponBlueprint(tmp);
+        getEvents().add(EventType.BLUEPRINT_INGESTED, tmp, numHeartbeats);
+        if (OmniFacSettings.isNetworked())
+        {
+            shareWithNetwork(tmp);
+        }
+
+        return result;
+    }
+
+    private static void addCount(Map<String, Integer> counts, String id, int amount)
+    {
+        final Integer count = counts.get(id);
+        counts.put(id, (count == null ? amount : count + amount));
+    }
+
     @Override
     public void advance(float amount)
     {
@@ -581,12 +1521,29 @@ public class OmniFac extends StoragePlugin
         if (clock.getElapsedDaysSince(lastHeartbeat) >= 1f)
         {
             lastHeartbeat = clock.getTimestamp();
-            heartbeat();
+            updateRecorder();
+            updateMetrics();
+            final long startTime = (metrics != null ? System.nanoTime() : 0L);
+            final boolean metRequirements = heartbeat();
+            if (recorder != null)
+            {
+                recorder.endHeartbeat(lastHeartbeat, metRequirements, numHeartbeats);
+            }
 
             if (checkCargo())
             {
                 warnedRequirements = false;
             }
+
+            dispatchEvents();
+            if (metrics != null)
+            {
+                metrics.recordHeartbeat(metRequirements, getStateIndex()
+                        .getInState(BlueprintState.AT_LIMIT).size(), System.nanoTime() - startTime);
+                metrics.flushIfDue(OmniFacSettings.getMetricsFormat(),
+                        OmniFacSettings.getMetricsInterval(), lastHeartbeat,
+                        market.getId(), numHeartbeats, getNumBlueprints());
+            }
         }
     }
     //</editor-fold>
@@ -636,7 +1593,7 @@ public class OmniFac extends StoragePlugin
             }
             else
             {
-                return (isRestrictedWeapon(stack) || !isUnknownWeapon(stack));
+                return (getLegality(stack) != Legality.LEGAL);
             }
         }
 
@@ -649,7 +1606,7 @@ public class OmniFac extends StoragePlugin
         // Can't sell restricted or known ships to the Omnifactory
         if (action == TransferAction.PLAYER_SELL)
         {
-            return (isRestrictedShip(member) || !isUnknownShip(member));
+            return (getLegality(member) != Legality.LEGAL);
         }
 
         return false;
@@ -658,18 +1615,69 @@ public class OmniFac extends StoragePlugin
     @Override
     public String getIllegalTransferText(CargoStackAPI stack, TransferAction action)
     {
-        if (!stack.isWeaponStack() || isRestrictedWeapon(stack))
+        if (getLegality(stack) == Legality.KNOWN)
         {
-            return "Unable to replicate";
+            return "Blueprint already known";
         }
 
-        return "Blueprint already known";
+        return "Unable to replicate";
     }
 
     @Override
     public String getIllegalTransferText(FleetMemberAPI member, TransferAction action)
     {
-        return (isRestrictedShip(member) ? "Unable to replicate" : "Blueprint already known");
+        return (getLegality(member) == Legality.RESTRICTED
+                ? "Unable to replicate" : "Blueprint already known");
+    }
+
+    // The trade screen asks about every item in the player's inventory each
+    // frame, so verdicts are cached by id until a blueprint is added or removed
+    private void validateLegalityCache()
+    {
+        if (shipLegality == null || legalityCatalogVersion != catalogVersion
+                || legalitySettingsVersion != OmniFacSettings.getVersion())
+        {
+            shipLegality = new HashMap<>();
+            wepLegality = new HashMap<>();
+            legalityCatalogVersion = catalogVersion;
+            legalitySettingsVersion = OmniFacSettings.getVersion();
+        }
+    }
+
+    private Legality getLegality(CargoStackAPI stack)
+    {
+        // Only weapons can be replicated, everything else is treated as restricted
+        if (!stack.isWeaponStack())
+        {
+            return Legality.RESTRICTED;
+        }
+
+        validateLegalityCache();
+        final String id = (String) stack.getData();
+        Legality legality = wepLegality.get(id);
+        if (legality == null)
+        {
+            legality = (isRestrictedWeapon(stack) ? Legality.RESTRICTED
+                    : (isUnknownWeapon(stack) ? Legality.LEGAL : Legality.KNOWN));
+            wepLegality.put(id, legality);
+        }
+
+        return legality;
+    }
+
+    private Legality getLegality(FleetMemberAPI member)
+    {
+        validateLegalityCache();
+        final String id = parseHullName(member);
+        Legality legality = shipLegality.get(id);
+        if (legality == null)
+        {
+            legality = (isRestrictedShip(member) ? Legality.RESTRICTED
+                    : (isUnknownShip(member) ? Legality.LEGAL : Legality.KNOWN));
+            shipLegality.put(id, legality);
+        }
+
+        return legality;
     }
 
     @Override
@@ -694,12 +1702,52 @@ public class OmniFac extends StoragePlugin
     public void updateCargoPrePlayerInteraction()
     {
         // TODO: Modify demand
+        cargoChanged();
     }
     //</editor-fold>
 
     //<editor-fold desc="Internal data types">
+    private static enum Legality
+    {
+        LEGAL,
+        RESTRICTED,
+        KNOWN
+    }
+
+    public static enum BlueprintCategory
+    {
+        SHIP,
+        WING,
+        WEAPON
+    }
+
+    public static enum BlueprintState
+    {
+        /** Still being analyzed, production hasn't started yet. */
+        ANALYZING,
+        /** Analyzed, and producing a new unit whenever its timer runs out. */
+        PRODUCING,
+        /** The last production attempt failed as the factory held the maximum. */
+        AT_LIMIT,
+        /**
+         * Production failed (usually due to a disabled mod) and is suspended
+         * until the blueprint's hull or weapon can be found again.
+         */
+        QUARANTINED
+    }
+
     public static interface BlueprintData
     {
+        public BlueprintCategory getCategory();
+
+        public BlueprintState getState();
+
+        /** Returns null if this isn't a ship or wing blueprint. */
+        public HullSize getHullSize();
+
+        /** Returns null if this isn't a weapon blueprint. */
+        public WeaponSize getWeaponSize();
+
         public int getDaysToAnalyze();
 
         public int getDaysToCreate();
@@ -722,47 +1770,54 @@ public class OmniFac extends StoragePlugin
 
         public void setAnalyzed(boolean isAnalyzed);
 
+        /** Returns how many times in a row production or re-validation failed. */
+        public int getFailures();
+
+        /** Returns the day a quarantined blueprint will next be re-validated. */
+        public int getRetryDay();
+
+        void quarantine(int retryDay);
+
+        void release();
+
         boolean create();
     }
 
-    private class ShipData implements BlueprintData
+    private static WeaponDefinition createWeaponDefinition(CargoStackAPI stack)
     {
-        String id, displayName;
-        FleetMemberType type;
-        int fp, size, lastUpdate;
-        boolean warnedLimit = false, isAnalyzed = false;
-
-        ShipData(FleetMemberAPI ship)
-        {
-            id = parseHullName(ship);
-            displayName = ship.getHullSpec().getHullName();
-            type = ship.getType();
-            fp = ship.getFleetPointCost();
-            size = ship.getHullSpec().getHullSize().ordinal();
-            lastUpdate = numHeartbeats;
-        }
+        final WeaponSpecAPI spec = stack.getWeaponSpecIfWeapon();
+        final float cargoSpace = stack.getCargoSpacePerUnit();
+        return new WeaponDefinition(spec.getWeaponId(), spec.getWeaponName(), spec.getSize(),
+                spec.getTier(), cargoSpace, ProductionRules.getWeaponStackSize(cargoSpace), false);
+    }
 
-        private float getTimeModifier(ShipHullSpecAPI ship)
+    // Production state shared by ships, wings and weapons, with definitions,
+    // specs, stock and creation left to the subclasses. The subclasses stay
+    // inner classes so they save their factory exactly as older saves did;
+    // this copy of it isn't saved, and is restored as each one is loaded
+    private abstract static class BlueprintEntry implements BlueprintData
+    {
+        transient OmniFac factory;
+        String id;
+        int lastUpdate, failures, retryDay;
+        boolean warnedLimit = false, atLimit = false, quarantined = false;
+        // Position of this good's limit in the LimitTable
+        transient int limitSlot, limitVersion;
+
+        BlueprintEntry(OmniFac factory, String id)
         {
-            //ship.get
+            this.factory = factory;
+            this.id = id;
+            lastUpdate = factory.numHeartbeats;
         }
 
-        private int getBaseDaysToCreate()
-        {
-            return Math.round(Math.max(1f, ((fp * size) / 2f) * getTimeModifier(ship)));
-        }
+        abstract Definition getDefinition();
 
-        @Override
-        public int getDaysToAnalyze()
-        {
-            return Math.round(Math.max(1f, getBaseDaysToCreate() * OmniFacSettings.getShipAnalysisTimeMod()));
-        }
+        // Called when the limit isn't resolved for the current settings
+        abstract int getLimitSlot();
 
-        @Override
-        public int getDaysToCreate()
-        {
-            return Math.round(Math.max(1f, getBaseDaysToCreate() * OmniFacSettings.getShipProductionTimeMod()));
-        }
+        // Throws if the good's spec can't be found
+        abstract void addUnit(CargoAPI cargo);
 
         @Override
         public int getLastUpdate()
@@ -773,7 +1828,7 @@ public class OmniFac extends StoragePlugin
         @Override
         public String getDisplayName()
         {
-            return displayName;
+            return getDefinition().displayName;
         }
 
         @Override
@@ -783,39 +1838,34 @@ public class OmniFac extends StoragePlugin
         }
 
         @Override
-        public int getTotal()
+        public BlueprintState getState()
         {
-            int total = 0;
-
-            for (FleetMemberAPI tmp : getCargo().getMothballedShips().getMembersListCopy())
+            if (quarantined)
             {
-                if (id.equals(parseHullName(tmp)))
-                {
-                    total++;
-                }
+                return BlueprintState.QUARANTINED;
             }
 
-            return total;
+            return (!getDefinition().isAnalyzed ? BlueprintState.ANALYZING
+                    : (atLimit ? BlueprintState.AT_LIMIT : BlueprintState.PRODUCING));
+        }
+
+        @Override
+        public int getTotal()
+        {
+            return (getCategory() == BlueprintCategory.WEAPON
+                    ? factory.getOwnCargo().getNumWeapons(id) : factory.countShips(id));
         }
 
         @Override
         public int getLimit()
         {
-            switch (size)
+            if (limitVersion != LimitTable.getSlotVersion())
             {
-                case 1:
-                    return OmniFacSettings.getMaxHullsPerFighter();
-                case 2:
-                    return OmniFacSettings.getMaxHullsPerFrigate();
-                case 3:
-                    return OmniFacSettings.getMaxHullsPerDestroyer();
-                case 4:
-                    return OmniFacSettings.getMaxHullsPerCruiser();
-                case 5:
-                    return OmniFacSettings.getMaxHullsPerCapital();
-                default:
-                    return 0;
+                limitSlot = getLimitSlot();
+                limitVersion = LimitTable.getSlotVersion();
             }
+
+            return LimitTable.get(limitSlot);
         }
 
         @Override
@@ -833,155 +1883,344 @@ public class OmniFac extends StoragePlugin
         @Override
         public boolean isAnalyzed()
         {
-            return isAnalyzed;
+            return getDefinition().isAnalyzed;
         }
 
         @Override
         public void setAnalyzed(boolean isAnalyzed)
         {
-            this.isAnalyzed = isAnalyzed;
-            lastUpdate = numHeartbeats;
+            getDefinition().isAnalyzed = isAnalyzed;
+            lastUpdate = factory.numHeartbeats;
+            factory.updateState(this);
+            if (OmniFacSettings.isNetworked())
+            {
+                factory.refreshNetworkState(this);
+            }
+        }
+
+        @Override
+        public int getFailures()
+        {
+            return failures;
+        }
+
+        @Override
+        public int getRetryDay()
+        {
+            return retryDay;
+        }
+
+        @Override
+        public void quarantine(int retryDay)
+        {
+            failures++;
+            quarantined = true;
+            this.retryDay = retryDay;
+            factory.updateState(this);
+        }
+
+        @Override
+        public void release()
+        {
+            quarantined = false;
+            factory.updateState(this);
         }
 
         @Override
         public boolean create()
         {
-            lastUpdate = numHeartbeats;
+            lastUpdate = factory.numHeartbeats;
+            final int total = getTotal();
+            if (factory.recorder != null)
+            {
+                factory.recorder.observeStock(id, total);
+            }
 
-            if (getTotal() >= getLimit())
+            atLimit = (total >= getLimit());
+            factory.updateState(this);
+
+            if (atLimit)
             {
                 return false;
             }
 
+            addUnit(factory.getOwnCargo());
+            if (factory.shipStock != null && getCategory() != BlueprintCategory.WEAPON)
+            {
+                addCount(factory.shipStock, id, 1);
+            }
+
             warnedLimit = false;
-            getCargo().addMothballedShip(type, id
-                    + (type.equals(FleetMemberType.FIGHTER_WING) ? "" : "_Hull"), null);
+            failures = 0;
             return true;
         }
     }
 
-    private class WeaponData implements BlueprintData
+    private class ShipData extends BlueprintEntry
     {
-        String id, displayName;
-        float size;
-        int lastUpdate, stackSize;
-        boolean warnedLimit = false, isAnalyzed = false;
+        ShipDefinition def;
+        // Only present in blueprints from older saves, moved into def on first use
+        String displayName;
+        FleetMemberType type;
+        Integer fp, size;
+        Boolean isAnalyzed;
+        // Resolved once per game load, new hulls are cloned from this
+        transient ShipVariantAPI emptyVariant;
+        transient int specGeneration;
 
-        WeaponData(CargoStackAPI stack)
+        ShipData(FleetMemberAPI ship)
+        {
+            this(new ShipDefinition(parseHullName(ship),
+                    ship.getHullSpec().getHullName(), ship.getType(),
+                    ship.getFleetPointCost(), ship.getHullSpec().getHullSize().ordinal(), false));
+        }
+
+        ShipData(ShipDefinition def)
         {
-            final WeaponSpecAPI spec = stack.getWeaponSpecIfWeapon();
-            id = spec.getWeaponId();
-            displayName = spec.getWeaponName();
-            size = stack.getCargoSpacePerUnit();
-            //2 40
-            //4 20
-            //8 10
-            stackSize = (int) (80 / stack.getCargoSpacePerUnit());
-            lastUpdate = numHeartbeats;
+            super(OmniFac.this, def.id);
+            this.def = def;
+        }
+
+        private Object readResolve()
+        {
+            factory = OmniFac.this;
+            return this;
+        }
+
+        @Override
+        ShipDefinition getDefinition()
+        {
+            if (def == null)
+            {
+                def = new ShipDefinition(id, displayName, type, fp, size,
+                        (isAnalyzed != null && isAnalyzed));
+                displayName = null;
+                type = null;
+                fp = size = null;
+                isAnalyzed = null;
+            }
+
+            return def;
         }
 
-        private float getTimeModifier(WeaponSpecAPI weapon)
+        private ShipVariantAPI getEmptyVariant()
         {
-            switch (weapon.getTier())
+            if (emptyVariant == null || specGeneration != SpecRegistry.getGeneration())
             {
-                case 0:
-                    return 0.8f;
-                case 1:
-                    return 1f;
-                case 2:
-                    return 1.2f;
-                case 3:
-                    return 1.5f;
-                default:
-                    return 2f;
+                emptyVariant = Global.getSettings().getVariant(id + "_Hull");
+                specGeneration = SpecRegistry.getGeneration();
             }
+
+            return emptyVariant;
+        }
+
+        @Override
+        int getLimitSlot()
+        {
+            return LimitTable.getShipSlot(id, getDefinition().size);
         }
 
-        private int getBaseDaysToCreate()
+        @Override
+        void addUnit(CargoAPI cargo)
         {
-            return Math.round(Math.max(1f, size * getTimeModifier(weapon)));
+            // Wings have no empty variant, so they go straight to the cargo
+            if (getCategory() == BlueprintCategory.WING)
+            {
+                cargo.addMothballedShip(FleetMemberType.FIGHTER_WING, id, null);
+                return;
+            }
+
+            // The cargo still builds the hull itself, same as it always has,
+            // but the cached variant lets a missing hull fail here first
+            getEmptyVariant();
+            cargo.addMothballedShip(getDefinition().type, id + "_Hull", null);
         }
 
         @Override
         public int getDaysToAnalyze()
         {
-            return Math.round(Math.max(1f, getBaseDaysToCreate() * OmniFacSettings.getWeaponAnalysisTimeMod()));
+            final ShipDefinition tmp = getDefinition();
+            return ProductionRules.getShipDaysToAnalyze(tmp.fp, tmp.size);
         }
 
         @Override
         public int getDaysToCreate()
         {
-            return Math.round(Math.max(1f, getBaseDaysToCreate() * OmniFacSettings.getWeaponProductionTimeMod()));
+            final ShipDefinition tmp = getDefinition();
+            return ProductionRules.getShipDaysToCreate(tmp.fp, tmp.size);
         }
 
         @Override
-        public int getLastUpdate()
+        public BlueprintCategory getCategory()
         {
-            return lastUpdate;
+            return (getDefinition().size == HullSize.FIGHTER.ordinal()
+                    ? BlueprintCategory.WING : BlueprintCategory.SHIP);
         }
 
         @Override
-        public String getDisplayName()
+        public HullSize getHullSize()
         {
-            return displayName;
+            return HullSize.values()[getDefinition().size];
         }
 
         @Override
-        public String getId()
+        public WeaponSize getWeaponSize()
         {
-            return id;
+            return null;
+        }
+    }
+
+    private class WeaponData extends BlueprintEntry
+    {
+        WeaponDefinition def;
+        // Only present in blueprints from older saves, moved into def on first use
+        String displayName;
+        WeaponSize weaponSize;
+        Integer tier, stackSize;
+        Float size;
+        Boolean isAnalyzed;
+        // Resolved once per game load
+        transient WeaponSpecAPI spec;
+        transient int specGeneration;
+
+        WeaponData(CargoStackAPI stack)
+        {
+            this(createWeaponDefinition(stack));
+            spec = stack.getWeaponSpecIfWeapon();
+            specGeneration = SpecRegistry.getGeneration();
+        }
+
+        WeaponData(WeaponDefinition def)
+        {
+            super(OmniFac.this, def.id);
+            this.def = def;
+        }
+
+        private Object readResolve()
+        {
+            factory = OmniFac.this;
+            return this;
         }
 
         @Override
-        public int getTotal()
+        WeaponDefinition getDefinition()
+        {
+            if (def == null)
+            {
+                def = new WeaponDefinition(id, displayName, weaponSize, tier, size,
+                        stackSize, (isAnalyzed != null && isAnalyzed));
+                displayName = null;
+                weaponSize = null;
+                tier = stackSize = null;
+                size = null;
+                isAnalyzed = null;
+            }
+
+            return def;
+        }
+
+        // Throws if the weapon's mod is no longer loaded
+        private WeaponSpecAPI getSpec()
+        {
+            if (spec == null || specGeneration != SpecRegistry.getGeneration())
+            {
+                spec = Global.getSettings().getWeaponSpec(id);
+                specGeneration = SpecRegistry.getGeneration();
+            }
+
+            return spec;
+        }
+
+        // Blueprints from older saves don't store their tier
+        private int getTier()
         {
-            return getCargo().getNumWeapons(id);
+            final WeaponDefinition tmp = getDefinition();
+            if (tmp.tier == null)
+            {
+                try
+                {
+                    tmp.tier = getSpec().getTier();
+                }
+                catch (RuntimeException ex)
+                {
+                    return 1;
+                }
+            }
+
+            return tmp.tier;
         }
 
         @Override
-        public int getLimit()
+        int getLimitSlot()
         {
-            return (int) (stackSize * OmniFacSettings.getMaxStacksPerWeapon());
+            return LimitTable.getWeaponSlot(id, getWeaponSize(), getWeaponType(),
+                    getDefinition().stackSize);
         }
 
         @Override
-        public boolean hasWarnedLimit()
+        void addUnit(CargoAPI cargo)
         {
-            return warnedLimit;
+            // Cargo only accepts weapons by id, but the cached spec lets a
+            // missing weapon fail here instead of adding an unusable stack
+            getSpec();
+            cargo.addWeapons(id, 1);
+        }
+
+        // Used as the weapon's tag by production limit rules
+        private String getWeaponType()
+        {
+            try
+            {
+                return getSpec().getType().name();
+            }
+            catch (RuntimeException ex)
+            {
+                return null;
+            }
         }
 
         @Override
-        public void setWarnedLimit(boolean hasWarned)
+        public int getDaysToAnalyze()
         {
-            warnedLimit = hasWarned;
+            return ProductionRules.getWeaponDaysToAnalyze(getDefinition().cargoSpace, getTier());
         }
 
         @Override
-        public boolean isAnalyzed()
+        public int getDaysToCreate()
         {
-            return isAnalyzed;
+            return ProductionRules.getWeaponDaysToCreate(getDefinition().cargoSpace, getTier());
         }
 
         @Override
-        public void setAnalyzed(boolean isAnalyzed)
+        public BlueprintCategory getCategory()
         {
-            this.isAnalyzed = isAnalyzed;
-            lastUpdate = numHeartbeats;
+            return BlueprintCategory.WEAPON;
         }
 
         @Override
-        public boolean create()
+        public HullSize getHullSize()
         {
-            lastUpdate = numHeartbeats;
+            return null;
+        }
 
-            if (getTotal() >= getLimit())
+        // Blueprints from older saves don't store their size
+        @Override
+        public WeaponSize getWeaponSize()
+        {
+            final WeaponDefinition tmp = getDefinition();
+            if (tmp.weaponSize == null)
             {
-                return false;
+                try
+                {
+                    tmp.weaponSize = getSpec().getSize();
+                }
+                catch (RuntimeException ex)
+                {
+                    return null;
+                }
             }
 
-            warnedLimit = false;
-            getCargo().addWeapons(id, 1);
-            return true;
+            return tmp.weaponSize;
         }
     }
     //</editor-fold>
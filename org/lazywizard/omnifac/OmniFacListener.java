@@ -0,0 +1,25 @@
+package org.lazywizard.omnifac;
+
+import java.util.List;
+
+/**
+ * Receives production events from every Omnifactory in the sector. Register
+ * with {@link OmniFac#addListener(OmniFacListener)}; listeners are stored in
+ * the sector's persistent data, so they are saved with the game and only
+ * need to be registered once per sector.
+ *
+ * @author LazyWizard
+ */
+public interface OmniFacListener
+{
+    /**
+     * Called at most once per factory per day, after the factory has finished
+     * its heartbeat and checked its cargo. Not called if nothing happened.
+     *
+     * @param factory The Omnifactory that raised these events.
+     * @param events  A read-only list of this heartbeat's events, in the
+     *                order they happened. Both the list and the events in it
+     *                are reused afterwards and must not be kept.
+     */
+    public void reportProductionEvents(OmniFac factory, List<ProductionEvent> events);
+}
@@ -1,7 +1,6 @@
 package org.lazywizard.omnifac;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -17,13 +16,11 @@ import com.fs.starfarer.api.impl.campaign.ids.Conditions;
 import com.fs.starfarer.api.impl.campaign.ids.Tags;
 import com.fs.starfarer.api.impl.campaign.shared.SharedData;
 import org.apache.log4j.Level;
-import org.lazywizard.lazylib.CollectionUtils;
-import org.lazywizard.lazylib.CollectionUtils.CollectionFilter;
 import org.lazywizard.lazylib.MathUtils;
 
 public class OmniFacModPlugin extends BaseModPlugin
 {
-    private static SectorEntityToken createOmnifactory()
+    private static SectorEntityToken createOmnifactory(OrbitIndex orbits)
     {
         SectorAPI sector = Global.getSector();
 
@@ -52,43 +49,32 @@ public class OmniFacModPlugin extends BaseModPlugin
         }
 
         // Find a random planet or star that doesn't already have a station
-        final List<StarSystemAPI> systems = new ArrayList<>(sector.getStarSystems());
-        Collections.shuffle(systems);
-        for (StarSystemAPI system : systems)
+        final FreeOrbits free = orbits.getRandomFreeOrbits();
+        if (free != null)
         {
-            final CollectionFilter planetFilter = new ValidOrbitFilter(system);
-            final List<PlanetAPI> planets = CollectionUtils.filter(
-                    system.getPlanets(), planetFilter);
-            if (!planets.isEmpty())
-            {
-                final PlanetAPI toOrbit = planets.get(
-                        MathUtils.getRandom().nextInt(planets.size()));
-
-                Global.getLogger(OmniFacModPlugin.class).log(Level.INFO,
-                        "Omnifactory starting location: orbiting "
-                        + toOrbit.getName() + " in " + system.getBaseName());
-
-                return system.addOrbitalStation(Constants.STATION_ID, toOrbit,
-                        (float) (Math.random() * 360f), toOrbit.getRadius() + 150f,
-                        50f, Constants.STATION_NAME, Constants.STATION_FACTION);
-            }
+            final StarSystemAPI system = free.system;
+            final PlanetAPI toOrbit = orbits.claimRandomPlanet(free);
+            Global.getLogger(OmniFacModPlugin.class).log(Level.INFO,
+                    "Omnifactory starting location: orbiting "
+                    + toOrbit.getName() + " in " + system.getBaseName());
+
+            return system.addOrbitalStation(Constants.STATION_ID, toOrbit,
+                    (float) (Math.random() * 360f), toOrbit.getRadius() + 150f,
+                    50f, Constants.STATION_NAME, Constants.STATION_FACTION);
         }
 
         // No empty planets found? Orbit a random star
-        Collections.shuffle(systems);
-        for (StarSystemAPI system : systems)
+        final StarSystemAPI system = orbits.getRandomStarSystem();
+        if (system != null)
         {
-            if (system.getStar() != null)
-            {
-                final PlanetAPI star = system.getStar();
-                Global.getLogger(OmniFacModPlugin.class).log(Level.INFO,
-                        "Omnifactory starting location: orbiting "
-                        + system.getBaseName() + "'s star (" + star.getName() + ")");
-                return system.addOrbitalStation(
-                        Constants.STATION_ID, star, (float) (Math.random() * 360f),
-                        (star.getRadius() * 1.5f) + 50f + star.getSpec().getCoronaSize(),
-                        50f, Constants.STATION_NAME, Constants.STATION_FACTION);
-            }
+            final PlanetAPI star = system.getStar();
+            Global.getLogger(OmniFacModPlugin.class).log(Level.INFO,
+                    "Omnifactory starting location: orbiting "
+                    + system.getBaseName() + "'s star (" + star.getName() + ")");
+            return system.addOrbitalStation(
+                    Constants.STATION_ID, star, (float) (Math.random() * 360f),
+                    (star.getRadius() * 1.5f) + 50f + star.getSpec().getCoronaSize(),
+                    50f, Constants.STATION_NAME, Constants.STATION_FACTION);
         }
 
         // In the unlikely situation where every planet's orbit is occupied
@@ -102,16 +88,32 @@ public class OmniFacModPlugin extends BaseModPlugin
         OmniFacSettings.reloadSettings();
     }
 
+    @Override
+    public void onGameLoad()
+    {
+        // The previous save's factories are gone, but their recordings are still open
+        HeartbeatRecorder.closeAll();
+
+        // Resolve every factory's blueprints in one batch before any heartbeat runs
+        SpecRegistry.invalidate();
+        OmniFac.syncNetwork();
+        for (OmniFac factory : OmniFac.getAllFactories())
+        {
+            factory.validateBlueprints();
+        }
+    }
+
     @Override
     public void onEnabled(boolean wasEnabledBefore)
     {
         if (!wasEnabledBefore)
         {
-            // Support for multiple factories
+            // Support for multiple factories, sharing one index of free orbits
+            final OrbitIndex orbits = new OrbitIndex(Global.getSector());
             for (int x = 1; x <= OmniFacSettings.getNumberOfFactories(); x++)
             {
                 // Set up the station and its market
-                SectorEntityToken factory = createOmnifactory();
+                SectorEntityToken factory = createOmnifactory(orbits);
                 String id = Constants.STATION_ID + "-" + x;
                 MarketAPI market = Global.getFactory().createMarket(id, Constants.STATION_NAME, 0);
                 SharedData.getData().getMarketsWithoutPatrolSpawn().add(id);
@@ -128,27 +130,107 @@ public class OmniFacModPlugin extends BaseModPlugin
         }
     }
 
-    private static class ValidOrbitFilter implements CollectionFilter<PlanetAPI>
+    /**
+     * Tracks which planets in the sector are free to be orbited by a new
+     * Omnifactory. Built once per placement run in a single pass over every
+     * system, then updated as factories claim planets, so placing multiple
+     * factories doesn't rescan the sector for each one.
+     */
+    private static class OrbitIndex
     {
-        final Set<PlanetAPI> blocked;
+        // Only systems with at least one free planet are kept here
+        private final List<FreeOrbits> freeOrbits = new ArrayList<>();
+        private final List<StarSystemAPI> starSystems = new ArrayList<>();
 
-        private ValidOrbitFilter(StarSystemAPI system)
+        private OrbitIndex(SectorAPI sector)
         {
-            blocked = new HashSet<>();
-            for (SectorEntityToken station : system.getEntitiesWithTag(Tags.STATION))
+            for (StarSystemAPI system : sector.getStarSystems())
             {
-                final OrbitAPI orbit = station.getOrbit();
-                if (orbit != null && orbit.getFocus() instanceof PlanetAPI)
+                if (system.getStar() != null)
+                {
+                    starSystems.add(system);
+                }
+
+                final Set<SectorEntityToken> blocked = new HashSet<>();
+                for (SectorEntityToken station : system.getEntitiesWithTag(Tags.STATION))
                 {
-                    blocked.add((PlanetAPI) station.getOrbit().getFocus());
+                    final OrbitAPI orbit = station.getOrbit();
+                    if (orbit != null && orbit.getFocus() instanceof PlanetAPI)
+                    {
+                        blocked.add(orbit.getFocus());
+                    }
+                }
+
+                final FreeOrbits free = new FreeOrbits(system, freeOrbits.size());
+                for (PlanetAPI planet : system.getPlanets())
+                {
+                    if (!planet.isStar() && !blocked.contains(planet))
+                    {
+                        free.planets.add(planet);
+                    }
+                }
+
+                if (!free.planets.isEmpty())
+                {
+                    freeOrbits.add(free);
                 }
             }
         }
 
-        @Override
-        public boolean accept(PlanetAPI planet)
+        private FreeOrbits getRandomFreeOrbits()
+        {
+            if (freeOrbits.isEmpty())
+            {
+                return null;
+            }
+
+            return freeOrbits.get(MathUtils.getRandom().nextInt(freeOrbits.size()));
+        }
+
+        // The chosen planet is removed from the index as it's now occupied
+        private PlanetAPI claimRandomPlanet(FreeOrbits free)
+        {
+            final List<PlanetAPI> planets = free.planets;
+            final int index = MathUtils.getRandom().nextInt(planets.size());
+            final PlanetAPI planet = planets.get(index);
+            planets.set(index, planets.get(planets.size() - 1));
+            planets.remove(planets.size() - 1);
+
+            // Order doesn't matter, so swap the last system into this one's slot
+            if (planets.isEmpty())
+            {
+                final FreeOrbits last = freeOrbits.remove(freeOrbits.size() - 1);
+                if (last != free)
+                {
+                    last.index = free.index;
+                    freeOrbits.set(free.index, last);
+                }
+            }
+
+            return planet;
+        }
+
+        private StarSystemAPI getRandomStarSystem()
+        {
+            if (starSystems.isEmpty())
+            {
+                return null;
+            }
+
+            return starSystems.get(MathUtils.getRandom().nextInt(starSystems.size()));
+        }
+    }
+
+    private static class FreeOrbits
+    {
+        final StarSystemAPI system;
+        final List<PlanetAPI> planets = new ArrayList<>();
+        int index;
+
+        private FreeOrbits(StarSystemAPI system, int index)
         {
-            return !planet.isStar() && !blocked.contains(planet);
+            this.system = system;
+            this.index = index;
         }
     }
 }
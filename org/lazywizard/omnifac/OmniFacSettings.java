@@ -19,6 +19,10 @@ public class OmniFacSettings
     private static boolean showLimitReached;
     private static boolean allowRestrictedGoods;
     private static boolean removeBrokenGoods;
+    private static boolean recordHeartbeats;
+    private static boolean networkedFactories;
+    private static MetricsSink.Format metricsFormat;
+    private static int metricsInterval;
     private static float shipAnalysisTimeMod;
     private static float weaponAnalysisTimeMod;
     private static float shipProductionTimeMod;
@@ -34,11 +38,63 @@ public class OmniFacSettings
     private static float maxStacksPerWeapon;
     private static int numberOfFactories;
     private static float omnifactoryTariff;
+    private static int version = 0;
+    private static String settingsSnapshot;
 
     public static void reloadSettings() throws JSONException, IOException
+    {
+        // Skip merging the spreadsheets if none of their sources have changed
+        final byte[] cacheKey = SettingsCache.getKey();
+        SettingsCache.Entry cached = (cacheKey == null ? null : SettingsCache.read(cacheKey));
+        if (cached == null)
+        {
+            cached = loadEntry();
+            if (cacheKey != null)
+            {
+                SettingsCache.write(cacheKey, cached);
+            }
+        }
+
+        loadSettings(cached.settings);
+        restrictedWeapons = cached.restrictedWeapons;
+        restrictedShips = cached.restrictedShips;
+        LimitTable.compile(cached.limits);
+    }
+
+    private static SettingsCache.Entry loadEntry() throws JSONException, IOException
     {
         // Base Omnifactory settings
-        JSONObject settings = Global.getSettings().loadJSON(Constants.SETTINGS_FILE);
+        final JSONObject settings = Global.getSettings().loadJSON(Constants.SETTINGS_FILE);
+
+        // Restricted goods
+        JSONArray csv = Global.getSettings().getMergedSpreadsheetDataForMod("weapon id",
+                Constants.RESTRICTED_WEAPONS_CSV, Constants.MOD_ID);
+        final Set<String> weapons = new HashSet<>();
+        for (int x = 0; x < csv.length(); x++)
+        {
+            JSONObject row = csv.getJSONObject(x);
+            weapons.add(row.getString("weapon id"));
+        }
+
+        // Restricted ships
+        csv = Global.getSettings().getMergedSpreadsheetDataForMod("hull id",
+                Constants.RESTRICTED_SHIPS_CSV, Constants.MOD_ID);
+        final Set<String> ships = new HashSet<>();
+        for (int x = 0; x < csv.length(); x++)
+        {
+            JSONObject row = csv.getJSONObject(x);
+            ships.add(row.getString("hull id"));
+        }
+
+        // Per-good production limits
+        return new SettingsCache.Entry(settings, weapons, ships,
+                Global.getSettings().getMergedSpreadsheetDataForMod("rule",
+                        Constants.PRODUCTION_LIMITS_CSV, Constants.MOD_ID));
+    }
+
+    // Doesn't touch the game, so the headless tools can load settings too
+    static void loadSettings(JSONObject settings) throws JSONException
+    {
         randomLocation = settings.getBoolean("randomStartingLocation");
         showAddedCargo = settings.getBoolean("showAddedCargo");
         showAnalysisComplete = settings.getBoolean("showAnalysisComplete");
@@ -60,26 +116,18 @@ public class OmniFacSettings
         maxStacksPerWeapon = (float) settings.getDouble("maxStacksPerWeapon");
         numberOfFactories = settings.getInt("numberOfFactories");
         omnifactoryTariff = (float) settings.getDouble("omnifactoryTariff");
+        recordHeartbeats = settings.optBoolean("recordHeartbeats", false);
+        networkedFactories = settings.optBoolean("networkedFactories", false);
+        metricsFormat = MetricsSink.parseFormat(settings.optString("metricsFormat", "none"));
+        metricsInterval = Math.max(1, settings.optInt("metricsInterval", 1));
+        settingsSnapshot = settings.toString();
+        version++;
+    }
 
-        // Restricted goods
-        JSONArray csv = Global.getSettings().getMergedSpreadsheetDataForMod("weapon id",
-                Constants.RESTRICTED_WEAPONS_CSV, Constants.MOD_ID);
-        restrictedWeapons = new HashSet<>();
-        for (int x = 0; x < csv.length(); x++)
-        {
-            JSONObject row = csv.getJSONObject(x);
-            restrictedWeapons.add(row.getString("weapon id"));
-        }
-
-        // Restricted ships
-        csv = Global.getSettings().getMergedSpreadsheetDataForMod("hull id",
-                Constants.RESTRICTED_SHIPS_CSV, Constants.MOD_ID);
-        restrictedShips = new HashSet<>();
-        for (int x = 0; x < csv.length(); x++)
-        {
-            JSONObject row = csv.getJSONObject(x);
-            restrictedShips.add(row.getString("hull id"));
-        }
+    // Incremented every time settings are reloaded so cached results can be discarded
+    static int getVersion()
+    {
+        return version;
     }
 
     public static Set<String> getRestrictedWeapons()
@@ -127,6 +175,33 @@ public class OmniFacSettings
         return removeBrokenGoods;
     }
 
+    public static boolean isNetworked()
+    {
+        return networkedFactories;
+    }
+
+    public static boolean shouldRecordHeartbeats()
+    {
+        return recordHeartbeats;
+    }
+
+    static MetricsSink.Format getMetricsFormat()
+    {
+        return metricsFormat;
+    }
+
+    // In days, how often each factory writes a row of metrics
+    static int getMetricsInterval()
+    {
+        return metricsInterval;
+    }
+
+    // The settings as they were loaded, used to replay recorded heartbeats
+    static String getSettingsSnapshot()
+    {
+        return settingsSnapshot;
+    }
+
     public static float getShipAnalysisTimeMod()
     {
         return shipAnalysisTimeMod;
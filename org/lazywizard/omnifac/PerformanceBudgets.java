@@ -0,0 +1,926 @@
+package org.lazywizard.omnifac;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import com.fs.starfarer.api.campaign.CargoAPI;
+import com.fs.starfarer.api.campaign.CargoStackAPI;
+import com.fs.starfarer.api.combat.ShipAPI.HullSize;
+import com.fs.starfarer.api.combat.WeaponAPI.WeaponSize;
+import com.fs.starfarer.api.combat.WeaponAPI.WeaponType;
+import com.fs.starfarer.api.fleet.FleetDataAPI;
+import com.fs.starfarer.api.fleet.FleetMemberAPI;
+import com.fs.starfarer.api.fleet.FleetMemberType;
+import com.fs.starfarer.api.loading.WeaponSpecAPI;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.lazywizard.omnifac.BlueprintLibrary.ShipDefinition;
+import org.lazywizard.omnifac.BlueprintLibrary.WeaponDefinition;
+import org.lazywizard.omnifac.HeartbeatReplay.ReplayResult;
+import org.lazywizard.omnifac.OmniFac.BlueprintCategory;
+import org.lazywizard.omnifac.OmniFac.BlueprintData;
+import org.lazywizard.omnifac.OmniFac.BlueprintState;
+
+/**
+ * Checks the production hot paths against fixed allocation and scaling
+ * budgets, outside of the game. Exits with status 1 if any budget is
+ * exceeded, so it can be run as a build step after compiling:
+ * <pre>
+ * java -cp starfarer.api.jar;json.jar;omnifactory.jar
+ *     org.lazywizard.omnifac.PerformanceBudgets omnifac_settings.json
+ * </pre>
+ * Factory budgets drive a real {@link OmniFac} whose cargo is a stub that
+ * counts every call and copy made on it. Scaling budgets count operations
+ * (calls into the stub cargo or blueprints) or allocated bytes instead of
+ * timing anything, so their results don't depend on the machine.
+ * <p>
+ * Allocation budgets need a JVM that can count allocations (HotSpot) and
+ * are skipped elsewhere. A final check records the stub factory's production
+ * and replays it with {@link HeartbeatReplay}, which must agree with it.
+ *
+ * @author LazyWizard
+ */
+public class PerformanceBudgets
+{
+    // Doubling the catalog may at most multiply the work done by this much
+    private static final double MAX_DOUBLING_FACTOR = 2.5;
+    private static final int BASE_CATALOG_SIZE = 2000;
+    private static final int IDLE_DAYS = 10000, ALLOCATION_PASSES = 5;
+    // Far enough away that nothing is due while the budgets run
+    private static final int NEVER_DUE = 1000000;
+    private final List<String> failures = new ArrayList<>();
+
+    private void check(String budget, boolean passed, String result)
+    {
+        System.out.println((passed ? "PASS " : "FAIL ") + budget + ": " + result);
+        if (!passed)
+        {
+            failures.add(budget);
+        }
+    }
+
+    private static void skip(String budget, String reason)
+    {
+        System.out.println("SKIP " + budget + ": " + reason);
+    }
+
+    private void checkDoubling(String budget, String unit, long base, long doubled)
+    {
+        final double factor = doubled / (double) Math.max(1L, base);
+        check(budget, factor <= MAX_DOUBLING_FACTOR, String.format(
+                "%d %s, %d when the catalog doubles (%.2fx, budget %.1fx)",
+                base, unit, doubled, factor, MAX_DOUBLING_FACTOR));
+    }
+
+    private static List<BenchBlueprint> createCatalog(int size, int days)
+    {
+        final List<BenchBlueprint> catalog = new ArrayList<>(size);
+        for (int x = 0; x < size; x++)
+        {
+            catalog.add(new BenchBlueprint("bench_" + x, (x % 4 == 0), days));
+        }
+
+        return catalog;
+    }
+
+    private interface Operation
+    {
+        void run();
+    }
+
+    // The fewest bytes allocated by any of several runs, as the JIT can
+    // still be compiling (and allocating less each time) during the first few
+    private static long measureAllocations(Operation op)
+    {
+        long allocated = Long.MAX_VALUE;
+        for (int pass = 0; pass < ALLOCATION_PASSES; pass++)
+        {
+            // Reading the counter can allocate, so its own cost is removed
+            final long overhead = -AllocationCounter.getAllocatedBytes()
+                    + AllocationCounter.getAllocatedBytes();
+            final long start = AllocationCounter.getAllocatedBytes();
+            op.run();
+            allocated = Math.min(allocated,
+                    AllocationCounter.getAllocatedBytes() - start - overhead);
+        }
+
+        return allocated;
+    }
+
+    //<editor-fold desc="Budgets">
+    // A day where nothing is due must not allocate in the engine at all
+    private void checkIdleEngineAllocation()
+    {
+        if (!AllocationCounter.isSupported())
+        {
+            skip("idle engine allocation", "no allocation counter");
+            return;
+        }
+
+        final List<BenchBlueprint> catalog = createCatalog(BASE_CATALOG_SIZE, NEVER_DUE);
+        final IdleCallback callback = new IdleCallback();
+        final long allocated = measureAllocations(new Operation()
+        {
+            @Override
+            public void run()
+            {
+                for (int day = 1; day <= IDLE_DAYS; day++)
+                {
+                    for (int x = 0; x < catalog.size(); x++)
+                    {
+                        ProductionEngine.advance(catalog.get(x), day, callback);
+                    }
+                }
+            }
+        });
+
+        check("idle engine allocation", allocated <= 0L, allocated + " bytes over "
+                + IDLE_DAYS + " idle days (budget 0)");
+    }
+
+    // The same, for a real factory's heartbeat
+    private void checkIdleHeartbeat()
+    {
+        final String budget = "idle heartbeat allocation";
+        if (!AllocationCounter.isSupported())
+        {
+            skip(budget, "no allocation counter");
+            return;
+        }
+
+        // Huge fleet point costs keep these from coming due while the budget runs
+        final StubFactory factory = new StubFactory();
+        for (int x = 0; x < BASE_CATALOG_SIZE; x++)
+        {
+            factory.importBlueprint(new ShipDefinition("bench_ship_" + x, "Bench ship",
+                    FleetMemberType.SHIP, NEVER_DUE, HullSize.CAPITAL_SHIP.ordinal(), true));
+        }
+
+        if (factory.getStateIndex().hasDueBy(factory.getCurrentDay()
+                + IDLE_DAYS * ALLOCATION_PASSES))
+        {
+            skip(budget, "production times in these settings are too short to leave days idle");
+            return;
+        }
+
+        final long allocated = measureAllocations(new Operation()
+        {
+            @Override
+            public void run()
+            {
+                for (int day = 0; day < IDLE_DAYS; day++)
+                {
+                    if (!factory.heartbeat())
+                    {
+                        throw new IllegalStateException("Stub cargo didn't meet the"
+                                + " factory's requirements");
+                    }
+                }
+            }
+        });
+
+        // The stub boxes the arguments of every call made on it, so the same
+        // calls an idle heartbeat makes on its cargo are measured and removed
+        final CargoAPI cargo = factory.getOwnCargo();
+        final long stubAllocated = measureAllocations(new Operation()
+        {
+            @Override
+            public void run()
+            {
+                for (int day = 0; day < IDLE_DAYS; day++)
+                {
+                    cargo.getTotalCrew();
+                    cargo.getFuel();
+                    cargo.getSupplies();
+                    cargo.removeSupplies(0f);
+                    cargo.removeFuel(0f);
+                }
+            }
+        });
+
+        check(budget, allocated <= stubAllocated, (allocated - stubAllocated)
+                + " bytes over " + IDLE_DAYS + " idle days, not counting the stub cargo (budget 0)");
+    }
+
+    // Cargo that hasn't changed since it was last checked must not be copied
+    private void checkCargoCopies()
+    {
+        final StubFactory factory = new StubFactory();
+        final StubCargo stub = factory.stub;
+        factory.checkCargo();
+        final int firstCopies = stub.copies;
+
+        stub.copies = 0;
+        for (int x = 0; x < 1000; x++)
+        {
+            factory.checkCargo();
+        }
+
+        final int unchangedCopies = stub.copies;
+
+        // Opening the trade screen is how the player changes the cargo
+        stub.copies = 0;
+        factory.updateCargoPrePlayerInteraction();
+        factory.checkCargo();
+        final int reopenedCopies = stub.copies;
+
+        // Other mods and scripts change it through getCargo(), which must
+        // still be searched again
+        stub.copies = 0;
+        factory.getCargo();
+        factory.checkCargo();
+        final int handedOutCopies = stub.copies;
+
+        check("unchanged cargo copies", unchangedCopies == 0 && firstCopies > 0
+                && reopenedCopies > 0 && handedOutCopies > 0, unchangedCopies
+                + " copies over 1000 checks of unchanged cargo (budget 0), " + firstCopies
+                + " on the first check, " + reopenedCopies + " after the player opened it and "
+                + handedOutCopies + " after it was handed out");
+    }
+
+    // Once the stock has been counted, checking a good's stock or limit must
+    // not depend on how many ships the cargo holds
+    private void checkStockLookups()
+    {
+        final long[] calls = new long[2];
+        final int[] stock = new int[2];
+        for (int x = 0; x < 2; x++)
+        {
+            final StubFactory factory = new StubFactory();
+            for (int y = 0; y < BASE_CATALOG_SIZE; y++)
+            {
+                if (y % 3 == 0)
+                {
+                    factory.importBlueprint(new WeaponDefinition("bench_wep_" + y, "Bench weapon",
+                            WeaponSize.values()[y % 3], y % 4, 10f, 10, true));
+                }
+                else
+                {
+                    factory.importBlueprint(new ShipDefinition("bench_ship_" + y, "Bench ship",
+                            FleetMemberType.SHIP, 5 + (y % 20), 2 + (y % 4), true));
+                }
+            }
+
+            stock[x] = (BASE_CATALOG_SIZE * 4) << x;
+            factory.stub.addShips("bench_ship_", BASE_CATALOG_SIZE, stock[x]);
+
+            // The first pass is the one that counts the stock
+            for (int pass = 0; pass < 11; pass++)
+            {
+                if (pass == 1)
+                {
+                    factory.stub.calls = 0;
+                }
+
+                for (Iterator<BlueprintData> iter = factory.getAllBlueprints(); iter.hasNext();)
+                {
+                    final BlueprintData data = iter.next();
+                    if (data.getTotal() > stock[x] || data.getLimit() < 0)
+                    {
+                        throw new IllegalStateException("Miscounted " + data.getId());
+                    }
+                }
+            }
+
+            calls[x] = factory.stub.calls;
+        }
+
+        check("stock and limit checks", calls[1] <= calls[0], calls[0] + " cargo calls with "
+                + stock[0] + " ships in stock, " + calls[1] + " with " + stock[1]
+                + " (budget: no growth)");
+    }
+
+    // Finding out that nothing is due must not look at any blueprint
+    private void checkIdlePlanning()
+    {
+        final long[] calls = new long[2];
+        for (int x = 0; x < 2; x++)
+        {
+            final StateIndex index = new StateIndex();
+            for (BenchBlueprint tmp : createCatalog(BASE_CATALOG_SIZE << x, NEVER_DUE))
+            {
+                index.update(tmp);
+            }
+
+            BenchBlueprint.calls = 0;
+            for (int y = 0; y < 100000; y++)
+            {
+                if (index.hasDueBy(y) || index.getDueBy(y).hasNext())
+                {
+                    throw new IllegalStateException("Blueprint due on idle day");
+                }
+            }
+
+            calls[x] = BenchBlueprint.calls;
+        }
+
+        check("idle day planning", calls[0] == 0 && calls[1] == 0, calls[0]
+                + " blueprint calls, " + calls[1] + " when the catalog doubles (budget 0)");
+    }
+
+    // The engine's daily work grows with the catalog, but must not grow faster
+    private void checkProductionDays()
+    {
+        final long[] calls = new long[2];
+        for (int x = 0; x < 2; x++)
+        {
+            final StateIndex index = new StateIndex();
+            final List<BenchBlueprint> catalog = new ArrayList<>();
+            for (int y = 0; y < BASE_CATALOG_SIZE << x; y++)
+            {
+                final BenchBlueprint tmp = new BenchBlueprint("bench_" + y, (y % 3 == 0),
+                        1 + (y % 30));
+                catalog.add(tmp);
+                index.update(tmp);
+            }
+
+            final DayCallback callback = new DayCallback(index);
+            final List<BlueprintData> due = new ArrayList<>();
+            BenchBlueprint.calls = 0;
+            for (int day = 1; day <= 365; day++)
+            {
+                // Copied first, as OmniFac does, since the engine moves
+                // blueprints to new due days while working through them
+                due.clear();
+                for (Iterator<BlueprintData> iter = index.getDueBy(day); iter.hasNext();)
+                {
+                    due.add(iter.next());
+                }
+
+                callback.day = day;
+                ProductionEngine.advance(due, day, callback);
+            }
+
+            calls[x] = BenchBlueprint.calls;
+        }
+
+        checkDoubling("production year", "blueprint calls", calls[0], calls[1]);
+    }
+
+    // Snapshots share most of their structure, so an update shouldn't copy
+    // more as the catalog grows
+    private void checkCatalogUpdates()
+    {
+        if (!AllocationCounter.isSupported())
+        {
+            skip("catalog update", "no allocation counter");
+            return;
+        }
+
+        final long[] bytes = new long[2];
+        for (int x = 0; x < 2; x++)
+        {
+            final int size = BASE_CATALOG_SIZE << x;
+            bytes[x] = measureAllocations(new Operation()
+            {
+                @Override
+                public void run()
+                {
+                    CatalogSnapshot snapshot = new CatalogSnapshot(0);
+                    for (int y = 0; y < size; y++)
+                    {
+                        snapshot = snapshot.withShip(y, "bench_" + y, HullSize.FRIGATE, true);
+                    }
+                }
+            }) / size;
+        }
+
+        checkDoubling("catalog update", "bytes per update", bytes[0], bytes[1]);
+    }
+
+    private void checkSearch()
+    {
+        final long[] calls = new long[2];
+        for (int x = 0; x < 2; x++)
+        {
+            final SearchIndex index = new SearchIndex();
+            for (BenchBlueprint tmp : createCatalog(BASE_CATALOG_SIZE << x, NEVER_DUE))
+            {
+                index.add(tmp);
+            }
+
+            BenchBlueprint.calls = 0;
+            for (int y = 0; y < 1000; y++)
+            {
+                index.search("bench_1" + (y % 10) + "7", 10);
+            }
+
+            calls[x] = BenchBlueprint.calls;
+        }
+
+        checkDoubling("search", "blueprint calls", calls[0], calls[1]);
+    }
+
+    // A weapon learned with no analysis time must be recorded (and shared)
+    // as already analyzed, or the replay analyzes it a day after the factory
+    private void checkInstantAnalysisReplay(JSONObject settings)
+            throws IOException, JSONException
+    {
+        final JSONObject instant = new JSONObject(settings.toString());
+        instant.put("weaponAnalysisTimeMod", 0.0);
+        OmniFacSettings.loadSettings(instant);
+        try
+        {
+            final StubFactory factory = new StubFactory();
+            final ByteArrayOutputStream recording = new ByteArrayOutputStream();
+            final HeartbeatRecorder recorder = new HeartbeatRecorder(recording);
+            factory.startRecording(recorder);
+            factory.learnWeapon(StubWeapon.createStack("bench_weapon"));
+
+            final int days = factory.getWeaponBlueprint("bench_weapon").getDaysToCreate() * 3;
+            for (int day = 0; day < days; day++)
+            {
+                recorder.endHeartbeat(day, factory.heartbeat(), factory.getCurrentDay());
+            }
+
+            recorder.close();
+            final ReplayResult result = HeartbeatReplay.replay(
+                    new ByteArrayInputStream(recording.toByteArray()));
+            check("instant analysis replay", result.getMismatches() == 0
+                    && factory.stub.weaponsAdded > 0, result.getMismatches() + " of "
+                    + result.getHeartbeats() + " replayed heartbeats diverged (budget 0), "
+                    + factory.stub.weaponsAdded + " weapons produced");
+        }
+        finally
+        {
+            OmniFacSettings.loadSettings(settings);
+        }
+    }
+    //</editor-fold>
+
+    //<editor-fold desc="Stubs">
+    private static Object getDefault(Class<?> type)
+    {
+        if (type == boolean.class)
+        {
+            return Boolean.FALSE;
+        }
+        else if (type == int.class)
+        {
+            return 0;
+        }
+        else if (type == float.class)
+        {
+            return 0f;
+        }
+        else if (type == long.class)
+        {
+            return 0L;
+        }
+        else if (type == double.class)
+        {
+            return 0.0;
+        }
+
+        return null;
+    }
+
+    // A factory whose cargo is the stub, everything else is the real thing
+    private static class StubFactory extends OmniFac
+    {
+        private final StubCargo stub = new StubCargo();
+
+        @Override
+        CargoAPI getOwnCargo()
+        {
+            return stub.cargo;
+        }
+    }
+
+    // Stands in for the game's cargo and its mothballed ships, counting every
+    // call made on them and every copy they hand out
+    private static class StubCargo implements InvocationHandler
+    {
+        // Boxed once, so the stub itself doesn't allocate when answering
+        private static final Float PLENTY = 1000000f;
+        private final List<FleetMemberAPI> members = new ArrayList<>();
+        private final CargoAPI cargo;
+        private final FleetDataAPI mothballed;
+        private int calls = 0, copies = 0, weaponsAdded = 0;
+        // Keeps the stub's boxed arguments from being optimized away in some
+        // measurements but not others
+        private Object[] lastArgs;
+
+        private StubCargo()
+        {
+            final ClassLoader loader = CargoAPI.class.getClassLoader();
+            cargo = (CargoAPI) Proxy.newProxyInstance(loader,
+                    new Class<?>[] { CargoAPI.class }, this);
+            mothballed = (FleetDataAPI) Proxy.newProxyInstance(loader,
+                    new Class<?>[] { FleetDataAPI.class }, this);
+        }
+
+        private void addShips(String prefix, int numHulls, int count)
+        {
+            final ClassLoader loader = FleetMemberAPI.class.getClassLoader();
+            for (int x = 0; x < count; x++)
+            {
+                members.add((FleetMemberAPI) Proxy.newProxyInstance(loader,
+                        new Class<?>[] { FleetMemberAPI.class },
+                        new StubMember(this, prefix + (x % numHulls))));
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            calls++;
+            lastArgs = args;
+            switch (method.getName())
+            {
+                case "getMothballedShips":
+                    return mothballed;
+                case "getMembersListCopy":
+                    copies++;
+                    return new ArrayList<>(members);
+                case "getStacksCopy":
+                    copies++;
+                    return new ArrayList<CargoStackAPI>();
+                case "addWeapons":
+                    weaponsAdded += (Integer) args[1];
+                    return null;
+                case "getFuel":
+                case "getSupplies":
+                    return PLENTY;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return (proxy == args[0]);
+                default:
+                    return getDefault(method.getReturnType());
+            }
+        }
+    }
+
+    private static class StubMember implements InvocationHandler
+    {
+        private final StubCargo cargo;
+        private final String hullId;
+
+        private StubMember(StubCargo cargo, String hullId)
+        {
+            this.cargo = cargo;
+            this.hullId = hullId;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            cargo.calls++;
+            switch (method.getName())
+            {
+                case "getHullId":
+                case "getSpecId":
+                    return hullId;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return (proxy == args[0]);
+                default:
+                    return getDefault(method.getReturnType());
+            }
+        }
+    }
+
+    // Answers for both a weapon's cargo stack and its spec
+    private static class StubWeapon implements InvocationHandler
+    {
+        private final String id;
+
+        private StubWeapon(String id)
+        {
+            this.id = id;
+        }
+
+        private static CargoStackAPI createStack(String id)
+        {
+            final ClassLoader loader = CargoStackAPI.class.getClassLoader();
+            return (CargoStackAPI) Proxy.newProxyInstance(loader,
+                    new Class<?>[] { CargoStackAPI.class, WeaponSpecAPI.class },
+                    new StubWeapon(id));
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            switch (method.getName())
+            {
+                case "getWeaponSpecIfWeapon":
+                    return proxy;
+                case "getData":
+                case "getWeaponId":
+                    return id;
+                case "getDisplayName":
+                case "getWeaponName":
+                    return "Bench weapon";
+                case "isWeaponStack":
+                    return Boolean.TRUE;
+                case "getCargoSpacePerUnit":
+                    return 1f;
+                case "getSize":
+                    return WeaponSize.SMALL;
+                case "getTier":
+                    return 1;
+                case "getType":
+                    return WeaponType.BALLISTIC;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return (proxy == args[0]);
+                default:
+                    return getDefault(method.getReturnType());
+            }
+        }
+    }
+
+    private static class IdleCallback implements ProductionEngine.Callback
+    {
+        @Override
+        public void analysisComplete(BlueprintData data)
+        {
+            throw new IllegalStateException("Blueprint was due on an idle day");
+        }
+
+        @Override
+        public void unitProduced(BlueprintData data)
+        {
+            throw new IllegalStateException("Blueprint was due on an idle day");
+        }
+
+        @Override
+        public void limitReached(BlueprintData data, boolean wasAtLimit)
+        {
+            throw new IllegalStateException("Blueprint was due on an idle day");
+        }
+
+        @Override
+        public void creationFailed(BlueprintData data, RuntimeException ex)
+        {
+            throw new IllegalStateException("Blueprint was due on an idle day");
+        }
+
+        @Override
+        public boolean isResolvable(BlueprintData data)
+        {
+            return true;
+        }
+
+        @Override
+        public void released(BlueprintData data)
+        {
+        }
+    }
+
+    // Stamps and re-indexes blueprints the way OmniFac's own entries do
+    private static class DayCallback implements ProductionEngine.Callback
+    {
+        private final StateIndex index;
+        private int day;
+
+        private DayCallback(StateIndex index)
+        {
+            this.index = index;
+        }
+
+        private void stamp(BlueprintData data)
+        {
+            ((BenchBlueprint) data).lastUpdate = day;
+            index.update(data);
+        }
+
+        @Override
+        public void analysisComplete(BlueprintData data)
+        {
+            stamp(data);
+        }
+
+        @Override
+        public void unitProduced(BlueprintData data)
+        {
+            stamp(data);
+        }
+
+        @Override
+        public void limitReached(BlueprintData data, boolean wasAtLimit)
+        {
+            stamp(data);
+        }
+
+        @Override
+        public void creationFailed(BlueprintData data, RuntimeException ex)
+        {
+            throw new IllegalStateException("Bench blueprints can't fail", ex);
+        }
+
+        @Override
+        public boolean isResolvable(BlueprintData data)
+        {
+            return true;
+        }
+
+        @Override
+        public void released(BlueprintData data)
+        {
+        }
+    }
+
+    // Counts the calls made on it, so the engine and indexes can be checked
+    // for how many blueprints they look at
+    private static class BenchBlueprint implements BlueprintData
+    {
+        private static long calls = 0;
+        private final String id;
+        private final boolean isWeapon;
+        private final int days;
+        private int total = 0, lastUpdate = 0;
+        private boolean warnedLimit = false, isAnalyzed = true;
+
+        private BenchBlueprint(String id, boolean isWeapon, int days)
+        {
+            this.id = id;
+            this.isWeapon = isWeapon;
+            this.days = days;
+        }
+
+        @Override
+        public BlueprintCategory getCategory()
+        {
+            calls++;
+            return (isWeapon ? BlueprintCategory.WEAPON : BlueprintCategory.SHIP);
+        }
+
+        @Override
+        public BlueprintState getState()
+        {
+            calls++;
+            return (isAnalyzed ? BlueprintState.PRODUCING : BlueprintState.ANALYZING);
+        }
+
+        @Override
+        public HullSize getHullSize()
+        {
+            calls++;
+            return (isWeapon ? null : HullSize.CRUISER);
+        }
+
+        @Override
+        public WeaponSize getWeaponSize()
+        {
+            calls++;
+            return (isWeapon ? WeaponSize.MEDIUM : null);
+        }
+
+        @Override
+        public int getDaysToAnalyze()
+        {
+            calls++;
+            return days;
+        }
+
+        @Override
+        public int getDaysToCreate()
+        {
+            calls++;
+            return days;
+        }
+
+        @Override
+        public int getLastUpdate()
+        {
+            calls++;
+            return lastUpdate;
+        }
+
+        @Override
+        public String getDisplayName()
+        {
+            calls++;
+            return id;
+        }
+
+        @Override
+        public String getId()
+        {
+            calls++;
+            return id;
+        }
+
+        @Override
+        public int getTotal()
+        {
+            calls++;
+            return total;
+        }
+
+        @Override
+        public int getLimit()
+        {
+            calls++;
+            return 1;
+        }
+
+        @Override
+        public boolean hasWarnedLimit()
+        {
+            calls++;
+            return warnedLimit;
+        }
+
+        @Override
+        public void setWarnedLimit(boolean hasWarned)
+        {
+            calls++;
+            warnedLimit = hasWarned;
+        }
+
+        @Override
+        public boolean isAnalyzed()
+        {
+            calls++;
+            return isAnalyzed;
+        }
+
+        @Override
+        public void setAnalyzed(boolean isAnalyzed)
+        {
+            calls++;
+            this.isAnalyzed = isAnalyzed;
+        }
+
+        @Override
+        public int getFailures()
+        {
+            calls++;
+            return 0;
+        }
+
+        @Override
+        public int getRetryDay()
+        {
+            calls++;
+            return 0;
+        }
+
+        @Override
+        public void quarantine(int retryDay)
+        {
+            calls++;
+        }
+
+        @Override
+        public void release()
+        {
+            calls++;
+        }
+
+        @Override
+        public boolean create()
+        {
+            calls++;
+            total++;
+            return true;
+        }
+    }
+    //</editor-fold>
+
+    public static void main(String[] args) throws IOException, JSONException
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: PerformanceBudgets <settings.json>");
+            return;
+        }
+
+        final JSONObject settings = new JSONObject(ProductionSimulator.stripComments(
+                Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8)));
+        OmniFacSettings.loadSettings(settings);
+        final PerformanceBudgets budgets = new PerformanceBudgets();
+        budgets.checkIdleEngineAllocation();
+        budgets.checkIdleHeartbeat();
+        budgets.checkCargoCopies();
+        budgets.checkStockLookups();
+        budgets.checkIdlePlanning();
+        budgets.checkProductionDays();
+        budgets.checkCatalogUpdates();
+        budgets.checkSearch();
+        budgets.checkInstantAnalysisReplay(settings);
+
+        if (!budgets.failures.isEmpty())
+        {
+            System.out.println(budgets.failures.size() + " budget(s) exceeded: "
+                    + budgets.failures);
+            System.exit(1);
+        }
+
+        System.out.println("All budgets met");
+    }
+}
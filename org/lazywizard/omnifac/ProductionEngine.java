@@ -0,0 +1,113 @@
+package org.lazywizard.omnifac;
+
+import org.lazywizard.omnifac.OmniFac.BlueprintData;
+import org.lazywizard.omnifac.OmniFac.BlueprintState;
+
+/**
+ * Advances blueprints through analysis and production by one factory day.
+ * This is the logic shared by the in-game Omnifactory and the headless
+ * {@link ProductionSimulator}; it never touches the game directly, so what
+ * actually happens to each blueprint is left to the {@link Callback}.
+ *
+ * @author LazyWizard
+ */
+class ProductionEngine
+{
+    // Quarantined blueprints wait 1, 2, 4... days between re-validations
+    private static final int QUARANTINE_BASE_DAYS = 1;
+    private static final int QUARANTINE_MAX_DAYS = 64;
+
+    interface Callback
+    {
+        void analysisComplete(BlueprintData data);
+
+        void unitProduced(BlueprintData data);
+
+        // wasAtLimit is true if the previous production attempt also failed
+        void limitReached(BlueprintData data, boolean wasAtLimit);
+
+        // The blueprint has already been quarantined when this is called
+        void creationFailed(BlueprintData data, RuntimeException ex);
+
+        // Must be cheap and must not throw, called for quarantined blueprints
+        boolean isResolvable(BlueprintData data);
+
+        void released(BlueprintData data);
+    }
+
+    static boolean isDue(BlueprintData data, int day)
+    {
+        return (data.isAnalyzed() ? day - data.getDaysToCreate() >= data.getLastUpdate()
+                : day - data.getDaysToAnalyze() >= data.getLastUpdate());
+    }
+
+    // Blueprints must not be added or removed by the callback during this call
+    static void advance(Iterable<? extends BlueprintData> blueprints, int day, Callback callback)
+    {
+        for (BlueprintData tmp : blueprints)
+        {
+            advance(tmp, day, callback);
+        }
+    }
+
+    static int getQuarantineDays(int failures)
+    {
+        return Math.min(QUARANTINE_MAX_DAYS,
+                QUARANTINE_BASE_DAYS << Math.min(Math.max(failures - 1, 0), 16));
+    }
+
+    static void advance(BlueprintData tmp, int day, Callback callback)
+    {
+        if (tmp.getState() == BlueprintState.QUARANTINED)
+        {
+            if (day < tmp.getRetryDay())
+            {
+                return;
+            }
+
+            // Re-validate against the loaded specs instead of letting it throw again
+            if (!callback.isResolvable(tmp))
+            {
+                tmp.quarantine(day + getQuarantineDays(tmp.getFailures() + 1));
+                return;
+            }
+
+            tmp.release();
+            callback.released(tmp);
+        }
+
+        if (!isDue(tmp, day))
+        {
+            return;
+        }
+
+        if (!tmp.isAnalyzed())
+        {
+            tmp.setAnalyzed(true);
+            callback.analysisComplete(tmp);
+            return;
+        }
+
+        try
+        {
+            final boolean wasAtLimit = (tmp.getState() == BlueprintState.AT_LIMIT);
+            if (tmp.create())
+            {
+                callback.unitProduced(tmp);
+            }
+            else
+            {
+                callback.limitReached(tmp, wasAtLimit);
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            tmp.quarantine(day + getQuarantineDays(tmp.getFailures() + 1));
+            callback.creationFailed(tmp, ex);
+        }
+    }
+
+    private ProductionEngine()
+    {
+    }
+}
@@ -0,0 +1,75 @@
+package org.lazywizard.omnifac;
+
+import org.lazywizard.omnifac.OmniFac.BlueprintData;
+
+/**
+ * Something that happened at an Omnifactory during a heartbeat. Events are
+ * pooled and reused by the factory that raised them, so they are only valid
+ * for the duration of {@link OmniFacListener#reportProductionEvents}; copy any
+ * data you need to keep.
+ *
+ * @author LazyWizard
+ */
+public class ProductionEvent
+{
+    public static enum EventType
+    {
+        /** A new blueprint was sold to the factory and is being analyzed. */
+        BLUEPRINT_INGESTED,
+        /** Analysis finished and production of this blueprint has started. */
+        ANALYSIS_COMPLETE,
+        /** A new ship, wing or weapon was added to the factory's cargo. */
+        UNIT_PRODUCED,
+        /** Production stopped as the factory holds the maximum of this good. */
+        LIMIT_REACHED,
+        /** A blueprint that could no longer be created was forgotten. */
+        BROKEN_GOOD_REMOVED,
+        /** The factory lacked crew, fuel or supplies. Blueprint is null. */
+        REQUIREMENTS_UNMET,
+        /** Production failed and is suspended until the good can be found again. */
+        BLUEPRINT_QUARANTINED,
+        /** A quarantined good was found again and production has resumed. */
+        BLUEPRINT_RELEASED
+    }
+
+    private EventType type;
+    private BlueprintData blueprint;
+    private int day;
+
+    ProductionEvent()
+    {
+    }
+
+    void set(EventType type, BlueprintData blueprint, int day)
+    {
+        this.type = type;
+        this.blueprint = blueprint;
+        this.day = day;
+    }
+
+    public EventType getType()
+    {
+        return type;
+    }
+
+    /**
+     * Returns the blueprint this event is about, or null for factory-wide
+     * events such as {@link EventType#REQUIREMENTS_UNMET}.
+     */
+    public BlueprintData getBlueprint()
+    {
+        return blueprint;
+    }
+
+    /** Returns the factory day (see {@link BlueprintData#getLastUpdate()}) of this event. */
+    public int getDay()
+    {
+        return day;
+    }
+
+    @Override
+    public String toString()
+    {
+        return type + (blueprint == null ? "" : " " + blueprint.getId()) + " (day " + day + ")";
+    }
+}
@@ -0,0 +1,173 @@
+package org.lazywizard.omnifac;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.lazywizard.omnifac.ProductionEvent.EventType;
+
+/**
+ * A fixed-size history of what an Omnifactory has done, returned by
+ * {@link OmniFac#getLedger()}. Once full, each new entry overwrites the
+ * oldest one, so a ledger never grows no matter how long the campaign runs.
+ * Entries are stored as parallel primitive arrays, and recording one is a
+ * handful of array writes.
+ * <p>
+ * Alongside the recent history the ledger keeps running totals for every
+ * blueprint it has seen, which are never overwritten.
+ *
+ * @author LazyWizard
+ */
+public class ProductionLedger
+{
+    static final int CAPACITY = 1024;
+    private final int[] days = new int[CAPACITY];
+    private final byte[] types = new byte[CAPACITY];
+    private final int[] blueprints = new int[CAPACITY];
+    // Index of the next entry to be written, and the number of entries kept
+    private int head = 0, size = 0;
+    private long totalEntries = 0;
+    // Running totals, indexed by the blueprint's position in ids
+    private final List<String> ids = new ArrayList<>();
+    private int[] unitsProduced = new int[64];
+    private int[] daysBlocked = new int[64];
+    private transient Map<String, Integer> keys;
+
+    private Map<String, Integer> getKeys()
+    {
+        if (keys == null)
+        {
+            keys = new HashMap<>(ids.size() * 2);
+            for (int x = 0; x < ids.size(); x++)
+            {
+                keys.put(ids.get(x), x);
+            }
+        }
+
+        return keys;
+    }
+
+    private int getKey(String id)
+    {
+        Integer key = getKeys().get(id);
+        if (key == null)
+        {
+            key = ids.size();
+            ids.add(id);
+            keys.put(id, key);
+            if (key == unitsProduced.length)
+            {
+                unitsProduced = Arrays.copyOf(unitsProduced, key * 2);
+                daysBlocked = Arrays.copyOf(daysBlocked, key * 2);
+            }
+        }
+
+        return key;
+    }
+
+    private int append(EventType type, String id, int day)
+    {
+        final int key = getKey(id);
+        days[head] = day;
+        types[head] = (byte) type.ordinal();
+        blueprints[head] = key;
+        head = (head + 1) % CAPACITY;
+        size = Math.min(size + 1, CAPACITY);
+        totalEntries++;
+        return key;
+    }
+
+    void recordAnalyzed(String id, int day)
+    {
+        append(EventType.ANALYSIS_COMPLETE, id, day);
+    }
+
+    void recordProduced(String id, int day)
+    {
+        unitsProduced[append(EventType.UNIT_PRODUCED, id, day)]++;
+    }
+
+    // A blocked attempt means a full production cycle went unused
+    void recordBlocked(String id, int day, int daysToCreate)
+    {
+        daysBlocked[append(EventType.LIMIT_REACHED, id, day)] += daysToCreate;
+    }
+
+    void recordFailed(String id, int day)
+    {
+        append(EventType.BLUEPRINT_QUARANTINED, id, day);
+    }
+
+    /** Returns the number of entries currently held, at most {@link #getCapacity()}. */
+    public int size()
+    {
+        return size;
+    }
+
+    public int getCapacity()
+    {
+        return CAPACITY;
+    }
+
+    /** Returns the number of entries ever recorded, including overwritten ones. */
+    public long getTotalEntries()
+    {
+        return totalEntries;
+    }
+
+    // Entry 0 is the oldest one still held
+    private int getSlot(int entry)
+    {
+        if (entry < 0 || entry >= size)
+        {
+            throw new IndexOutOfBoundsException("Entry: " + entry + ", size: " + size);
+        }
+
+        return (head - size + entry + CAPACITY) % CAPACITY;
+    }
+
+    /**
+     * Returns the factory day an entry was recorded on. Entry 0 is the
+     * oldest entry still held, entry {@code size() - 1} the newest.
+     */
+    public int getDay(int entry)
+    {
+        return days[getSlot(entry)];
+    }
+
+    /**
+     * Returns what happened: {@link EventType#ANALYSIS_COMPLETE},
+     * {@link EventType#UNIT_PRODUCED}, {@link EventType#LIMIT_REACHED} or
+     * {@link EventType#BLUEPRINT_QUARANTINED}.
+     */
+    public EventType getType(int entry)
+    {
+        return EventType.values()[types[getSlot(entry)]];
+    }
+
+    public String getBlueprintId(int entry)
+    {
+        return ids.get(blueprints[getSlot(entry)]);
+    }
+
+    /** Returns the ids of every blueprint with running totals, in the order first seen. */
+    public List<String> getTrackedBlueprints()
+    {
+        return Collections.unmodifiableList(ids);
+    }
+
+    public int getUnitsProduced(String id)
+    {
+        final Integer key = getKeys().get(id);
+        return (key == null ? 0 : unitsProduced[key]);
+    }
+
+    /** Returns the production days lost because the factory held the maximum of a good. */
+    public int getDaysBlocked(String id)
+    {
+        final Integer key = getKeys().get(id);
+        return (key == null ? 0 : daysBlocked[key]);
+    }
+}
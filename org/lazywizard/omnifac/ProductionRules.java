@@ -0,0 +1,109 @@
+package org.lazywizard.omnifac;
+
+/**
+ * The formulas used to determine how long goods take to analyze and produce,
+ * and how many of each the Omnifactory will stockpile. These only depend on
+ * {@link OmniFacSettings}, so they can be used outside of a running game.
+ *
+ * @author LazyWizard
+ */
+public class ProductionRules
+{
+    public static float getShipBaseDays(int fleetPoints, int hullSize)
+    {
+        return Math.max((fleetPoints * hullSize) / 2f, hullSize * 2f);
+    }
+
+    public static float getWeaponBaseDays(float cargoSpace, int tier)
+    {
+        return cargoSpace * getTierModifier(tier);
+    }
+
+    public static float getTierModifier(int tier)
+    {
+        switch (tier)
+        {
+            case 0:
+                return 0.8f;
+            case 1:
+                return 1f;
+            case 2:
+                return 1.2f;
+            case 3:
+                return 1.5f;
+            default:
+                return 2f;
+        }
+    }
+
+    public static int getDaysToCreate(float baseDays, float productionTimeMod)
+    {
+        return Math.round(Math.max(1f, baseDays * productionTimeMod));
+    }
+
+    // Analysis time is based on the unmodified production time
+    public static int getDaysToAnalyze(float baseDays, float analysisTimeMod)
+    {
+        return Math.round(Math.max(1f, getDaysToCreate(baseDays, 1f) * analysisTimeMod));
+    }
+
+    public static int getShipDaysToCreate(int fleetPoints, int hullSize)
+    {
+        return getDaysToCreate(getShipBaseDays(fleetPoints, hullSize),
+                OmniFacSettings.getShipProductionTimeMod());
+    }
+
+    public static int getShipDaysToAnalyze(int fleetPoints, int hullSize)
+    {
+        return getDaysToAnalyze(getShipBaseDays(fleetPoints, hullSize),
+                OmniFacSettings.getShipAnalysisTimeMod());
+    }
+
+    public static int getWeaponDaysToCreate(float cargoSpace, int tier)
+    {
+        return getDaysToCreate(getWeaponBaseDays(cargoSpace, tier),
+                OmniFacSettings.getWeaponProductionTimeMod());
+    }
+
+    public static int getWeaponDaysToAnalyze(float cargoSpace, int tier)
+    {
+        return getDaysToAnalyze(getWeaponBaseDays(cargoSpace, tier),
+                OmniFacSettings.getWeaponAnalysisTimeMod());
+    }
+
+    public static int getShipLimit(int hullSize)
+    {
+        switch (hullSize)
+        {
+            case 1:
+                return OmniFacSettings.getMaxHullsPerFighter();
+            case 2:
+                return OmniFacSettings.getMaxHullsPerFrigate();
+            case 3:
+                return OmniFacSettings.getMaxHullsPerDestroyer();
+            case 4:
+                return OmniFacSettings.getMaxHullsPerCruiser();
+            case 5:
+                return OmniFacSettings.getMaxHullsPerCapital();
+            default:
+                return 0;
+        }
+    }
+
+    public static int getWeaponStackSize(float cargoSpace)
+    {
+        //2 40
+        //4 20
+        //8 10
+        return (int) (80 / cargoSpace);
+    }
+
+    public static int getWeaponLimit(float cargoSpace)
+    {
+        return (int) (getWeaponStackSize(cargoSpace) * OmniFacSettings.getMaxStacksPerWeapon());
+    }
+
+    private ProductionRules()
+    {
+    }
+}
@@ -0,0 +1,596 @@
+package org.lazywizard.omnifac;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import com.fs.starfarer.api.combat.ShipAPI.HullSize;
+import com.fs.starfarer.api.combat.WeaponAPI.WeaponSize;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.lazywizard.omnifac.OmniFac.BlueprintCategory;
+import org.lazywizard.omnifac.OmniFac.BlueprintData;
+import org.lazywizard.omnifac.OmniFac.BlueprintState;
+
+/**
+ * Runs the Omnifactory's analysis, production and limit logic against a
+ * plain in-memory catalog, without a running game. Used to forecast a live
+ * factory's output, and from the command line to check balance changes:
+ * <pre>
+ * java -cp starfarer.api.jar;json.jar;omnifactory.jar
+ *     org.lazywizard.omnifac.ProductionSimulator
+ *     omnifac_settings.json catalog.csv [years] [purchaseIntervalDays]
+ * </pre>
+ * The catalog CSV has the columns {@code id,type,size,fp,tier}, where type
+ * is ship, wing or weapon, size is a hull or weapon size, fp is only used by
+ * ships and wings, and tier is only used by weapons.
+ * <p>
+ * The simulated factory always meets its crew, fuel and supply requirements.
+ *
+ * @author LazyWizard
+ */
+public class ProductionSimulator
+{
+    private final List<SimBlueprint> blueprints = new ArrayList<>();
+    private int day = 0;
+    private int purchaseInterval = 30;
+
+    public ProductionSimulator()
+    {
+    }
+
+    /**
+     * Creates a simulator that starts from a copy of a factory's current
+     * catalog and stock. The factory itself is never modified.
+     */
+    public static ProductionSimulator fromFactory(OmniFac factory)
+    {
+        final ProductionSimulator sim = new ProductionSimulator();
+        sim.day = factory.getCurrentDay();
+        for (Iterator<BlueprintData> iter = factory.getAllBlueprints(); iter.hasNext();)
+        {
+            final BlueprintData data = iter.next();
+            final SimBlueprint tmp = sim.new SimBlueprint(data.getId(), data.getDisplayName(),
+                    data.getCategory(), data.getHullSize(), data.getWeaponSize(),
+                    data.getDaysToAnalyze(), data.getDaysToCreate(), data.getLimit());
+            tmp.total = data.getTotal();
+            tmp.lastUpdate = data.getLastUpdate();
+            tmp.isAnalyzed = data.isAnalyzed();
+            tmp.atLimit = (data.getState() == BlueprintState.AT_LIMIT);
+            tmp.quarantined = (data.getState() == BlueprintState.QUARANTINED);
+            tmp.failures = data.getFailures();
+            tmp.retryDay = data.getRetryDay();
+            sim.blueprints.add(tmp);
+        }
+
+        return sim;
+    }
+
+    public void addShip(String id, HullSize size, int fleetPoints)
+    {
+        final int ordinal = size.ordinal();
+        addBlueprint(new SimBlueprint(id, id, (size == HullSize.FIGHTER
+                ? BlueprintCategory.WING : BlueprintCategory.SHIP), size, null,
+                ProductionRules.getShipDaysToAnalyze(fleetPoints, ordinal),
+                ProductionRules.getShipDaysToCreate(fleetPoints, ordinal),
+                LimitTable.getShipLimit(id, ordinal)));
+    }
+
+    public void addWeapon(String id, WeaponSize size, int tier)
+    {
+        final float cargoSpace = getCargoSpace(size);
+        addBlueprint(new SimBlueprint(id, id, BlueprintCategory.WEAPON, null, size,
+                ProductionRules.getWeaponDaysToAnalyze(cargoSpace, tier),
+                ProductionRules.getWeaponDaysToCreate(cargoSpace, tier),
+                LimitTable.getWeaponLimit(id, size, null,
+                        ProductionRules.getWeaponStackSize(cargoSpace))));
+    }
+
+    private void addBlueprint(SimBlueprint tmp)
+    {
+        // Mirrors checkCargo(): a zero analysis modifier skips analysis entirely
+        final float analysisMod = (tmp.category == BlueprintCategory.WEAPON
+                ? OmniFacSettings.getWeaponAnalysisTimeMod()
+                : OmniFacSettings.getShipAnalysisTimeMod());
+        if (analysisMod == 0f)
+        {
+            tmp.setAnalyzed(true);
+        }
+
+        blueprints.add(tmp);
+    }
+
+    private static float getCargoSpace(WeaponSize size)
+    {
+        switch (size)
+        {
+            case SMALL:
+                return 2f;
+            case MEDIUM:
+                return 4f;
+            default:
+                return 8f;
+        }
+    }
+
+    /**
+     * Sets how often the simulated player empties the factory's stock, in
+     * days. Use 0 for a player who never buys anything. Defaults to 30.
+     */
+    public void setPurchaseInterval(int days)
+    {
+        this.purchaseInterval = Math.max(0, days);
+    }
+
+    public int getNumBlueprints()
+    {
+        return blueprints.size();
+    }
+
+    /**
+     * Simulates the given number of factory heartbeats.
+     *
+     * @return The throughput and limit statistics for the simulated period.
+     */
+    public SimulationResult run(int days)
+    {
+        final SimulationResult result = new SimulationResult(days);
+        final ResultRecorder recorder = new ResultRecorder(result);
+        final int startDay = day, steadyStart = startDay + (days / 2);
+        for (int x = 0; x < days; x++)
+        {
+            day++;
+            recorder.steadyState = (day > steadyStart);
+            ProductionEngine.advance(blueprints, day, recorder);
+
+            for (SimBlueprint tmp : blueprints)
+            {
+                if (tmp.atLimit)
+                {
+                    result.getGroup(tmp).daysBlocked++;
+                }
+            }
+
+            if (purchaseInterval > 0 && (day - startDay) % purchaseInterval == 0)
+            {
+                for (SimBlueprint tmp : blueprints)
+                {
+                    tmp.total = 0;
+                }
+            }
+        }
+
+        for (SimBlueprint tmp : blueprints)
+        {
+            if (tmp.firstUnitDay >= 0)
+            {
+                result.getGroup(tmp).addFirstUnit(tmp.firstUnitDay - startDay);
+            }
+            else
+            {
+                result.getGroup(tmp).neverProduced++;
+            }
+        }
+
+        return result;
+    }
+
+    private static String getGroupName(BlueprintData data)
+    {
+        switch (data.getCategory())
+        {
+            case WING:
+                return "Fighter wings";
+            case WEAPON:
+                return data.getWeaponSize() + " weapons";
+            default:
+                return data.getHullSize() + " hulls";
+        }
+    }
+
+    private class ResultRecorder implements ProductionEngine.Callback
+    {
+        private final SimulationResult result;
+        private boolean steadyState = false;
+
+        private ResultRecorder(SimulationResult result)
+        {
+            this.result = result;
+        }
+
+        @Override
+        public void analysisComplete(BlueprintData data)
+        {
+            result.analysesCompleted++;
+        }
+
+        @Override
+        public void unitProduced(BlueprintData data)
+        {
+            final SimBlueprint tmp = (SimBlueprint) data;
+            final GroupStats group = result.getGroup(tmp);
+            result.unitsProduced++;
+            group.unitsProduced++;
+            if (steadyState)
+            {
+                group.steadyStateUnits++;
+            }
+
+            if (tmp.firstUnitDay < 0)
+            {
+                tmp.firstUnitDay = day;
+            }
+        }
+
+        @Override
+        public void limitReached(BlueprintData data, boolean wasAtLimit)
+        {
+        }
+
+        @Override
+        public void creationFailed(BlueprintData data, RuntimeException ex)
+        {
+            result.failures++;
+        }
+
+        // Assume anything missing now stays missing for the whole forecast
+        @Override
+        public boolean isResolvable(BlueprintData data)
+        {
+            return false;
+        }
+
+        @Override
+        public void released(BlueprintData data)
+        {
+        }
+    }
+
+    public static class SimulationResult
+    {
+        private final Map<String, GroupStats> groups = new LinkedHashMap<>();
+        private final int days;
+        private int unitsProduced = 0, analysesCompleted = 0, failures = 0;
+
+        private SimulationResult(int days)
+        {
+            this.days = days;
+        }
+
+        private GroupStats getGroup(SimBlueprint data)
+        {
+            GroupStats group = groups.get(data.group);
+            if (group == null)
+            {
+                group = new GroupStats();
+                groups.put(data.group, group);
+            }
+
+            return group;
+        }
+
+        public int getDaysSimulated()
+        {
+            return days;
+        }
+
+        public int getUnitsProduced()
+        {
+            return unitsProduced;
+        }
+
+        public int getAnalysesCompleted()
+        {
+            return analysesCompleted;
+        }
+
+        public int getFailures()
+        {
+            return failures;
+        }
+
+        public List<String> getReport()
+        {
+            final List<String> report = new ArrayList<>();
+            report.add("Simulated " + days + " days: " + unitsProduced + " units produced, "
+                    + analysesCompleted + " analyses completed");
+            final int steadyDays = Math.max(1, days - (days / 2));
+            for (Map.Entry<String, GroupStats> entry : groups.entrySet())
+            {
+                final GroupStats group = entry.getValue();
+                report.add(String.format("%s: %d produced, %.2f per 30 days (steady state),"
+                        + " first unit after %s, %d blueprint-days at limit",
+                        entry.getKey(), group.unitsProduced,
+                        (group.steadyStateUnits * 30f) / steadyDays,
+                        (group.firstUnits == 0 ? "never" : String.format("%.1f days avg/%d max",
+                                group.totalFirstUnitDays / (float) group.firstUnits,
+                                group.maxFirstUnitDays))
+                        + (group.neverProduced > 0 ? " (" + group.neverProduced
+                                + " never produced)" : ""),
+                        group.daysBlocked));
+            }
+
+            return report;
+        }
+
+        @Override
+        public String toString()
+        {
+            final StringBuilder sb = new StringBuilder();
+            for (String line : getReport())
+            {
+                sb.append(line).append('\n');
+            }
+
+            return sb.toString();
+        }
+    }
+
+    private static class GroupStats
+    {
+        int unitsProduced = 0, steadyStateUnits = 0, daysBlocked = 0;
+        int firstUnits = 0, totalFirstUnitDays = 0, maxFirstUnitDays = 0, neverProduced = 0;
+
+        private void addFirstUnit(int days)
+        {
+            firstUnits++;
+            totalFirstUnitDays += days;
+            maxFirstUnitDays = Math.max(maxFirstUnitDays, days);
+        }
+    }
+
+    private class SimBlueprint implements BlueprintData
+    {
+        final String id, displayName, group;
+        final BlueprintCategory category;
+        final HullSize hullSize;
+        final WeaponSize weaponSize;
+        final int daysToAnalyze, daysToCreate, limit;
+        int total = 0, lastUpdate, firstUnitDay = -1, failures = 0, retryDay = 0;
+        boolean warnedLimit = false, isAnalyzed = false, atLimit = false, quarantined = false;
+
+        SimBlueprint(String id, String displayName, BlueprintCategory category,
+                HullSize hullSize, WeaponSize weaponSize, int daysToAnalyze,
+                int daysToCreate, int limit)
+        {
+            this.id = id;
+            this.displayName = displayName;
+            this.category = category;
+            this.hullSize = hullSize;
+            this.weaponSize = weaponSize;
+            this.daysToAnalyze = daysToAnalyze;
+            this.daysToCreate = daysToCreate;
+            this.limit = limit;
+            this.group = getGroupName(this);
+            lastUpdate = day;
+        }
+
+        @Override
+        public BlueprintCategory getCategory()
+        {
+            return category;
+        }
+
+        @Override
+        public BlueprintState getState()
+        {
+            if (quarantined)
+            {
+                return BlueprintState.QUARANTINED;
+            }
+
+            return (!isAnalyzed ? BlueprintState.ANALYZING
+                    : (atLimit ? BlueprintState.AT_LIMIT : BlueprintState.PRODUCING));
+        }
+
+        @Override
+        public HullSize getHullSize()
+        {
+            return hullSize;
+        }
+
+        @Override
+        public WeaponSize getWeaponSize()
+        {
+            return weaponSize;
+        }
+
+        @Override
+        public int getDaysToAnalyze()
+        {
+            return daysToAnalyze;
+        }
+
+        @Override
+        public int getDaysToCreate()
+        {
+            return daysToCreate;
+        }
+
+        @Override
+        public int getLastUpdate()
+        {
+            return lastUpdate;
+        }
+
+        @Override
+        public String getDisplayName()
+        {
+            return displayName;
+        }
+
+        @Override
+        public String getId()
+        {
+            return id;
+        }
+
+        @Override
+        public int getTotal()
+        {
+            return total;
+        }
+
+        @Override
+        public int getLimit()
+        {
+            return limit;
+        }
+
+        @Override
+        public boolean hasWarnedLimit()
+        {
+            return warnedLimit;
+        }
+
+        @Override
+        public void setWarnedLimit(boolean hasWarned)
+        {
+            warnedLimit = hasWarned;
+        }
+
+        @Override
+        public boolean isAnalyzed()
+        {
+            return isAnalyzed;
+        }
+
+        @Override
+        public void setAnalyzed(boolean isAnalyzed)
+        {
+            this.isAnalyzed = isAnalyzed;
+            lastUpdate = day;
+        }
+
+        @Override
+        public int getFailures()
+        {
+            return failures;
+        }
+
+        @Override
+        public int getRetryDay()
+        {
+            return retryDay;
+        }
+
+        @Override
+        public void quarantine(int retryDay)
+        {
+            failures++;
+            quarantined = true;
+            this.retryDay = retryDay;
+        }
+
+        @Override
+        public void release()
+        {
+            quarantined = false;
+        }
+
+        @Override
+        public boolean create()
+        {
+            lastUpdate = day;
+            atLimit = (total >= limit);
+            if (atLimit)
+            {
+                return false;
+            }
+
+            warnedLimit = false;
+            failures = 0;
+            total++;
+            return true;
+        }
+    }
+
+    private static void loadCatalog(ProductionSimulator sim, List<String> lines)
+    {
+        for (String line : lines)
+        {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#") || line.startsWith("id,"))
+            {
+                continue;
+            }
+
+            final String[] row = line.split(",", -1);
+            final String id = row[0].trim(), type = row[1].trim().toLowerCase(),
+                    size = row[2].trim().toUpperCase();
+            if ("weapon".equals(type))
+            {
+                sim.addWeapon(id, WeaponSize.valueOf(size), Integer.parseInt(row[4].trim()));
+            }
+            else
+            {
+                sim.addShip(id, ("wing".equals(type) ? HullSize.FIGHTER
+                        : HullSize.valueOf(size)), Integer.parseInt(row[3].trim()));
+            }
+        }
+    }
+
+    // Strips the # comments that the game's own JSON loader would ignore, but
+    // leaves a # inside a quoted id or name alone
+    static String stripComments(List<String> lines)
+    {
+        final StringBuilder json = new StringBuilder();
+        for (String line : lines)
+        {
+            boolean quoted = false;
+            int end = line.length();
+            for (int x = 0; x < line.length(); x++)
+            {
+                final char c = line.charAt(x);
+                if (c == '"')
+                {
+                    quoted = !quoted;
+                }
+                else if (c == '\\' && quoted)
+                {
+                    x++;
+                }
+                else if (c == '#' && !quoted)
+                {
+                    end = x;
+                    break;
+                }
+            }
+
+            json.append(line, 0, end).append('\n');
+        }
+
+        return json.toString();
+    }
+
+    public static void main(String[] args) throws IOException, JSONException
+    {
+        if (args.length < 2)
+        {
+            System.out.println("Usage: ProductionSimulator <settings.json> <catalog.csv>"
+                    + " [years] [purchaseIntervalDays]");
+            return;
+        }
+
+        OmniFacSettings.loadSettings(new JSONObject(stripComments(
+                Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8))));
+        final ProductionSimulator sim = new ProductionSimulator();
+        loadCatalog(sim, Files.readAllLines(Paths.get(args[1]), StandardCharsets.UTF_8));
+        if (args.length > 3)
+        {
+            sim.setPurchaseInterval(Integer.parseInt(args[3]));
+        }
+
+        final int days = (args.length > 2 ? Integer.parseInt(args[2]) : 10) * 365;
+        final long startTime = System.nanoTime();
+        final SimulationResult result = sim.run(days);
+        System.out.print(result);
+        System.out.println(String.format("Simulated %d blueprints in %.1f ms",
+                sim.getNumBlueprints(), (System.nanoTime() - startTime) / 1000000.0));
+    }
+}
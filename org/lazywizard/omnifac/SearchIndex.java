@@ -0,0 +1,180 @@
+package org.lazywizard.omnifac;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import org.lazywizard.omnifac.OmniFac.BlueprintData;
+
+/**
+ * Finds a single Omnifactory's blueprints by part of their name or id. Every
+ * one, two and three character sequence in each blueprint's lower-cased name
+ * and id maps to the blueprints containing it, so a search only looks at the
+ * blueprints that share at least part of the search text. Entries are added
+ * and removed as the factory learns and forgets blueprints.
+ * <p>
+ * Longer searches are fuzzy: a blueprint matches if it shares at least half
+ * of the search text's three character sequences, so small typos still find
+ * what was meant. Exact matches always rank first.
+ *
+ * @author LazyWizard
+ */
+class SearchIndex
+{
+    private static final int MAX_GRAM_LENGTH = 3;
+    private static final float MIN_FUZZY_SCORE = 0.5f;
+    private final Map<String, Set<BlueprintData>> grams = new HashMap<>();
+
+    private static Set<String> getGrams(String text, int minLength)
+    {
+        final Set<String> tmp = new LinkedHashSet<>();
+        for (int length = minLength; length <= MAX_GRAM_LENGTH; length++)
+        {
+            for (int x = 0; x + length <= text.length(); x++)
+            {
+                tmp.add(text.substring(x, x + length));
+            }
+        }
+
+        return tmp;
+    }
+
+    private static Set<String> getGrams(BlueprintData data)
+    {
+        final Set<String> tmp = getGrams(data.getId().toLowerCase(), 1);
+        tmp.addAll(getGrams(data.getDisplayName().toLowerCase(), 1));
+        return tmp;
+    }
+
+    void add(BlueprintData data)
+    {
+        for (String gram : getGrams(data))
+        {
+            Set<BlueprintData> matches = grams.get(gram);
+            if (matches == null)
+            {
+                matches = new LinkedHashSet<>();
+                grams.put(gram, matches);
+            }
+
+            matches.add(data);
+        }
+    }
+
+    void remove(BlueprintData data)
+    {
+        for (String gram : getGrams(data))
+        {
+            final Set<BlueprintData> matches = grams.get(gram);
+            if (matches != null && matches.remove(data) && matches.isEmpty())
+            {
+                grams.remove(gram);
+            }
+        }
+    }
+
+    // Exact id > id or name prefix > substring > fuzzy
+    private static float getScore(BlueprintData data, String text, float fuzzyScore)
+    {
+        final String id = data.getId().toLowerCase(),
+                name = data.getDisplayName().toLowerCase();
+        if (id.equals(text) || name.equals(text))
+        {
+            return 4f;
+        }
+
+        if (id.startsWith(text) || name.startsWith(text))
+        {
+            return 3f;
+        }
+
+        if (id.contains(text) || name.contains(text))
+        {
+            return 2f;
+        }
+
+        return fuzzyScore;
+    }
+
+    List<BlueprintData> search(String text, int maxResults)
+    {
+        text = text.toLowerCase().trim();
+        if (text.isEmpty() || maxResults <= 0)
+        {
+            return Collections.<BlueprintData>emptyList();
+        }
+
+        // Short searches are a single lookup, longer ones count shared trigrams
+        final Map<BlueprintData, Integer> shared = new HashMap<>();
+        final Set<String> searchGrams = (text.length() < MAX_GRAM_LENGTH
+                ? Collections.singleton(text) : getGrams(text, MAX_GRAM_LENGTH));
+        for (String gram : searchGrams)
+        {
+            final Set<BlueprintData> matches = grams.get(gram);
+            if (matches == null)
+            {
+                continue;
+            }
+
+            for (BlueprintData data : matches)
+            {
+                final Integer count = shared.get(data);
+                shared.put(data, (count == null ? 1 : count + 1));
+            }
+        }
+
+        final Map<BlueprintData, Float> scores = new HashMap<>();
+        final Comparator<BlueprintData> ranking = new Comparator<BlueprintData>()
+        {
+            @Override
+            public int compare(BlueprintData o1, BlueprintData o2)
+            {
+                final int result = Float.compare(scores.get(o2), scores.get(o1));
+                if (result != 0)
+                {
+                    return result;
+                }
+
+                return o1.getDisplayName().compareTo(o2.getDisplayName());
+            }
+        };
+
+        // Short searches can match most of the catalog, so only the best
+        // maxResults are kept, with the worst of them at the head of the heap
+        final PriorityQueue<BlueprintData> best = new PriorityQueue<>(
+                Math.min(maxResults, shared.size()) + 1, Collections.reverseOrder(ranking));
+        for (Map.Entry<BlueprintData, Integer> entry : shared.entrySet())
+        {
+            final float fuzzyScore = entry.getValue() / (float) searchGrams.size();
+            final float score = getScore(entry.getKey(), text, fuzzyScore);
+            if (score < MIN_FUZZY_SCORE)
+            {
+                continue;
+            }
+
+            scores.put(entry.getKey(), score);
+            if (best.size() < maxResults)
+            {
+                best.add(entry.getKey());
+            }
+            else if (ranking.compare(entry.getKey(), best.peek()) < 0)
+            {
+                scores.remove(best.poll());
+                best.add(entry.getKey());
+            }
+            else
+            {
+                scores.remove(entry.getKey());
+            }
+        }
+
+        final List<BlueprintData> results = new ArrayList<>(best);
+        Collections.sort(results, ranking);
+        return results;
+    }
+}
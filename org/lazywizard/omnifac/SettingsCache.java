@@ -0,0 +1,248 @@
+package org.lazywizard.omnifac;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import com.fs.starfarer.api.Global;
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Keeps the parsed settings, restricted goods and production limits on disk
+ * so later launches can skip merging every mod's spreadsheets. The cache is
+ * keyed by a hash of everything that could change the merged result: the
+ * settings file, the list of enabled mods, and every mod's copy of the
+ * Omnifactory CSVs. If any of those change, or the mods folder can't be
+ * found, settings are loaded the normal way and the cache is rewritten.
+ *
+ * @author LazyWizard
+ */
+class SettingsCache
+{
+    private static final Logger Log = Logger.getLogger(SettingsCache.class);
+    private static final int MAGIC = 0x4F465343; // "OFSC"
+    private static final int FORMAT_VERSION = 1;
+    private static final String[] MERGED_FILES =
+    {
+        Constants.RESTRICTED_WEAPONS_CSV, Constants.RESTRICTED_SHIPS_CSV,
+        Constants.PRODUCTION_LIMITS_CSV
+    };
+
+    static class Entry
+    {
+        final JSONObject settings;
+        final Set<String> restrictedWeapons, restrictedShips;
+        final JSONArray limits;
+
+        Entry(JSONObject settings, Set<String> restrictedWeapons,
+                Set<String> restrictedShips, JSONArray limits)
+        {
+            this.settings = settings;
+            this.restrictedWeapons = restrictedWeapons;
+            this.restrictedShips = restrictedShips;
+            this.limits = limits;
+        }
+    }
+
+    private static File getFile()
+    {
+        return new File(Constants.CACHE_DIR + Constants.SETTINGS_CACHE_FILE);
+    }
+
+    private static void digestFile(MessageDigest digest, File file) throws IOException
+    {
+        digest.update(file.getPath().getBytes(StandardCharsets.UTF_8));
+        if (file.isFile())
+        {
+            digest.update(Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    /**
+     * Hashes every file that contributes to the merged settings.
+     *
+     * @return The cache key, or null if the sources can't be found.
+     */
+    static byte[] getKey()
+    {
+        final File modsDir = new File(Constants.MODS_DIR);
+        final File[] mods = modsDir.listFiles();
+        if (mods == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(Global.getSettings().loadText(Constants.SETTINGS_FILE)
+                    .getBytes(StandardCharsets.UTF_8));
+            digestFile(digest, new File(modsDir, Constants.ENABLED_MODS_FILE));
+
+            // Disabled mods are included too; that only costs an unneeded rebuild
+            Arrays.sort(mods);
+            for (File mod : mods)
+            {
+                for (String path : MERGED_FILES)
+                {
+                    final File file = new File(mod, path);
+                    if (file.isFile())
+                    {
+                        digestFile(digest, file);
+                    }
+                }
+            }
+
+            return digest.digest();
+        }
+        catch (IOException | NoSuchAlgorithmException ex)
+        {
+            Log.warn("Unable to check settings cache, loading settings normally", ex);
+            return null;
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException
+    {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException
+    {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Set<String> readIds(DataInputStream in) throws IOException
+    {
+        final int size = in.readInt();
+        final Set<String> ids = new HashSet<>(size * 2);
+        for (int x = 0; x < size; x++)
+        {
+            ids.add(in.readUTF());
+        }
+
+        return ids;
+    }
+
+    private static void writeIds(DataOutputStream out, Set<String> ids) throws IOException
+    {
+        out.writeInt(ids.size());
+        for (String id : ids)
+        {
+            out.writeUTF(id);
+        }
+    }
+
+    /**
+     * Returns the cached settings if they were built from the same sources,
+     * otherwise null.
+     */
+    static Entry read(byte[] key)
+    {
+        final File file = getFile();
+        if (!file.isFile())
+        {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+                    || !Arrays.equals(key, readBytes(in)))
+            {
+                return null;
+            }
+
+            final JSONObject settings = new JSONObject(
+                    new String(readBytes(in), StandardCharsets.UTF_8));
+            final Set<String> weapons = readIds(in), ships = readIds(in);
+            final JSONArray limits = new JSONArray();
+            for (int x = in.readInt(); x > 0; x--)
+            {
+                limits.put(new JSONObject().put("rule", in.readUTF())
+                        .put("limit", in.readInt()));
+            }
+
+            return new Entry(settings, weapons, ships, limits);
+        }
+        catch (IOException | JSONException ex)
+        {
+            Log.warn("Ignoring unreadable settings cache", ex);
+            return null;
+        }
+    }
+
+    static void write(byte[] key, Entry entry)
+    {
+        final File file = getFile(), tmp = new File(file.getPath() + ".tmp");
+        tmp.getAbsoluteFile().getParentFile().mkdirs();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeBytes(out, key);
+            writeBytes(out, entry.settings.toString().getBytes(StandardCharsets.UTF_8));
+            writeIds(out, entry.restrictedWeapons);
+            writeIds(out, entry.restrictedShips);
+
+            // Only rows LimitTable would use, as (rule, limit) pairs
+            int numRules = 0;
+            for (int x = 0; x < entry.limits.length(); x++)
+            {
+                final JSONObject row = entry.limits.getJSONObject(x);
+                if (row.has("rule") && row.has("limit"))
+                {
+                    numRules++;
+                }
+            }
+
+            out.writeInt(numRules);
+            for (int x = 0; x < entry.limits.length(); x++)
+            {
+                final JSONObject row = entry.limits.getJSONObject(x);
+                if (row.has("rule") && row.has("limit"))
+                {
+                    out.writeUTF(row.getString("rule"));
+                    out.writeInt(row.optInt("limit", -1));
+                }
+            }
+        }
+        catch (IOException | JSONException ex)
+        {
+            Log.warn("Failed to write settings cache", ex);
+            tmp.delete();
+            return;
+        }
+
+        // Replace the old cache only once the new one is complete
+        file.delete();
+        if (!tmp.renameTo(file))
+        {
+            Log.warn("Failed to replace settings cache " + file.getPath());
+            tmp.delete();
+        }
+    }
+
+    private SettingsCache()
+    {
+    }
+}
@@ -0,0 +1,173 @@
+package org.lazywizard.omnifac;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * An immutable, sorted list of ids. Adding or removing an id returns a new
+ * list that shares every chunk except the one that changed, and older lists
+ * stay valid for anyone still reading them.
+ * <p>
+ * A write copies the changed chunk (at most 64 ids) plus the chunk table and
+ * its offsets, one entry per chunk. That is O(n/64) for n ids: far less than
+ * copying the whole list, but it still grows with the catalog.
+ *
+ * @author LazyWizard
+ */
+class SortedIdList extends AbstractList<String> implements RandomAccess
+{
+    private static final int MAX_CHUNK_SIZE = 64;
+    static final SortedIdList EMPTY = new SortedIdList(new String[0][], new int[0], 0);
+    private final String[][] chunks;
+    // Index of the first id in each chunk
+    private final int[] offsets;
+    private final int size;
+
+    private SortedIdList(String[][] chunks, int[] offsets, int size)
+    {
+        this.chunks = chunks;
+        this.offsets = offsets;
+        this.size = size;
+    }
+
+    private static SortedIdList create(String[][] chunks)
+    {
+        final int[] offsets = new int[chunks.length];
+        int size = 0;
+        for (int x = 0; x < chunks.length; x++)
+        {
+            offsets[x] = size;
+            size += chunks[x].length;
+        }
+
+        return new SortedIdList(chunks, offsets, size);
+    }
+
+    // Returns the last chunk whose first id is not after the given id
+    private int findChunk(String id)
+    {
+        int low = 0, high = chunks.length - 1;
+        while (low < high)
+        {
+            final int mid = (low + high + 1) >>> 1;
+            if (chunks[mid][0].compareTo(id) <= 0)
+            {
+                low = mid;
+            }
+            else
+            {
+                high = mid - 1;
+            }
+        }
+
+        return low;
+    }
+
+    SortedIdList with(String id)
+    {
+        if (chunks.length == 0)
+        {
+            final String[][] newChunks = { { id } };
+            return create(newChunks);
+        }
+
+        final int chunkIndex = findChunk(id);
+        final String[] chunk = chunks[chunkIndex];
+        int index = Arrays.binarySearch(chunk, id);
+        if (index >= 0)
+        {
+            return this;
+        }
+
+        index = -(index + 1);
+        final String[] changed = new String[chunk.length + 1];
+        System.arraycopy(chunk, 0, changed, 0, index);
+        changed[index] = id;
+        System.arraycopy(chunk, index, changed, index + 1, chunk.length - index);
+
+        // Full chunks are split in half so later writes stay cheap
+        if (changed.length > MAX_CHUNK_SIZE)
+        {
+            final int half = changed.length / 2;
+            final String[][] newChunks = new String[chunks.length + 1][];
+            System.arraycopy(chunks, 0, newChunks, 0, chunkIndex);
+            newChunks[chunkIndex] = Arrays.copyOfRange(changed, 0, half);
+            newChunks[chunkIndex + 1] = Arrays.copyOfRange(changed, half, changed.length);
+            System.arraycopy(chunks, chunkIndex + 1, newChunks, chunkIndex + 2,
+                    chunks.length - chunkIndex - 1);
+            return create(newChunks);
+        }
+
+        final String[][] newChunks = chunks.clone();
+        newChunks[chunkIndex] = changed;
+        return create(newChunks);
+    }
+
+    SortedIdList without(String id)
+    {
+        if (chunks.length == 0)
+        {
+            return this;
+        }
+
+        final int chunkIndex = findChunk(id);
+        final String[] chunk = chunks[chunkIndex];
+        final int index = Arrays.binarySearch(chunk, id);
+        if (index < 0)
+        {
+            return this;
+        }
+
+        // Empty chunks are dropped entirely
+        if (chunk.length == 1)
+        {
+            final String[][] newChunks = new String[chunks.length - 1][];
+            System.arraycopy(chunks, 0, newChunks, 0, chunkIndex);
+            System.arraycopy(chunks, chunkIndex + 1, newChunks, chunkIndex,
+                    chunks.length - chunkIndex - 1);
+            return create(newChunks);
+        }
+
+        final String[] changed = new String[chunk.length - 1];
+        System.arraycopy(chunk, 0, changed, 0, index);
+        System.arraycopy(chunk, index + 1, changed, index, chunk.length - index - 1);
+        final String[][] newChunks = chunks.clone();
+        newChunks[chunkIndex] = changed;
+        return create(newChunks);
+    }
+
+    @Override
+    public String get(int index)
+    {
+        if (index < 0 || index >= size)
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        int chunk = Arrays.binarySearch(offsets, index);
+        if (chunk < 0)
+        {
+            chunk = -(chunk + 1) - 1;
+        }
+
+        return chunks[chunk][index - offsets[chunk]];
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object obj)
+    {
+        if (!(obj instanceof String) || chunks.length == 0)
+        {
+            return false;
+        }
+
+        return (Arrays.binarySearch(chunks[findChunk((String) obj)], obj) >= 0);
+    }
+}
@@ -0,0 +1,88 @@
+package org.lazywizard.omnifac;
+
+import java.util.HashSet;
+import java.util.Set;
+import com.fs.starfarer.api.Global;
+import org.lazywizard.omnifac.OmniFac.BlueprintData;
+
+/**
+ * Answers whether a blueprint's hull, wing or weapon is currently loaded,
+ * without creating anything (and so without the exception thrown when a
+ * required mod has been disabled). The id sets are built on first use.
+ *
+ * @author LazyWizard
+ */
+class SpecRegistry
+{
+    private static Set<String> hullIds = null, wingIds = null, weaponIds = null;
+    // Bumped on every game load, so blueprints know to re-resolve cached specs
+    private static int generation = 0;
+
+    private static void build()
+    {
+        // Empty variants are named after their hull, ie "onslaught_Hull"
+        hullIds = new HashSet<>(Global.getSector().getAllEmptyVariantIds());
+        wingIds = new HashSet<>(Global.getSector().getAllFighterWingIds());
+        weaponIds = new HashSet<>(Global.getSector().getAllWeaponIds());
+    }
+
+    static void invalidate()
+    {
+        hullIds = null;
+        wingIds = null;
+        weaponIds = null;
+        generation++;
+    }
+
+    static int getGeneration()
+    {
+        return generation;
+    }
+
+    static boolean hasHull(String hullId)
+    {
+        if (hullIds == null)
+        {
+            build();
+        }
+
+        return hullIds.contains(hullId + "_Hull");
+    }
+
+    static boolean hasWing(String wingId)
+    {
+        if (wingIds == null)
+        {
+            build();
+        }
+
+        return wingIds.contains(wingId);
+    }
+
+    static boolean hasWeapon(String weaponId)
+    {
+        if (weaponIds == null)
+        {
+            build();
+        }
+
+        return weaponIds.contains(weaponId);
+    }
+
+    static boolean isResolvable(BlueprintData data)
+    {
+        switch (data.getCategory())
+        {
+            case SHIP:
+                return hasHull(data.getId());
+            case WING:
+                return hasWing(data.getId());
+            default:
+                return hasWeapon(data.getId());
+        }
+    }
+
+    private SpecRegistry()
+    {
+    }
+}
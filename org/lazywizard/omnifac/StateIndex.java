@@ -0,0 +1,161 @@
+package org.lazywizard.omnifac;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import org.lazywizard.omnifac.OmniFac.BlueprintData;
+import org.lazywizard.omnifac.OmniFac.BlueprintState;
+
+/**
+ * Secondary indexes over a single Omnifactory's blueprints, by production
+ * state and by the day each blueprint is next due to be processed. Entries
+ * are moved whenever a blueprint's state or last update changes.
+ *
+ * @author LazyWizard
+ */
+class StateIndex
+{
+    private final Map<BlueprintData, Entry> entries = new HashMap<>();
+    private final Map<BlueprintState, Set<BlueprintData>> byState = new HashMap<>();
+    private final TreeMap<Integer, Set<BlueprintData>> byDueDay = new TreeMap<>();
+
+    StateIndex()
+    {
+        for (BlueprintState state : BlueprintState.values())
+        {
+            byState.put(state, new LinkedHashSet<BlueprintData>());
+        }
+    }
+
+    // Quarantined blueprints are next looked at on their re-validation day
+    static int getDueDay(BlueprintData data)
+    {
+        if (data.getState() == BlueprintState.QUARANTINED)
+        {
+            return data.getRetryDay();
+        }
+
+        return data.getLastUpdate() + (data.isAnalyzed()
+                ? data.getDaysToCreate() : data.getDaysToAnalyze());
+    }
+
+    void update(BlueprintData data)
+    {
+        final BlueprintState state = data.getState();
+        final int dueDay = getDueDay(data);
+        Entry entry = entries.get(data);
+        if (entry != null)
+        {
+            if (entry.state == state && entry.dueDay == dueDay)
+            {
+                return;
+            }
+
+            unlink(data, entry);
+        }
+        else
+        {
+            entry = new Entry();
+            entries.put(data, entry);
+        }
+
+        entry.state = state;
+        entry.dueDay = dueDay;
+        byState.get(state).add(data);
+        Set<BlueprintData> due = byDueDay.get(dueDay);
+        if (due == null)
+        {
+            due = new LinkedHashSet<>();
+            byDueDay.put(dueDay, due);
+        }
+
+        due.add(data);
+    }
+
+    void remove(BlueprintData data)
+    {
+        final Entry entry = entries.remove(data);
+        if (entry != null)
+        {
+            unlink(data, entry);
+        }
+    }
+
+    private void unlink(BlueprintData data, Entry entry)
+    {
+        byState.get(entry.state).remove(data);
+        final Set<BlueprintData> due = byDueDay.get(entry.dueDay);
+        due.remove(data);
+        if (due.isEmpty())
+        {
+            byDueDay.remove(entry.dueDay);
+        }
+    }
+
+    Set<BlueprintData> getInState(BlueprintState state)
+    {
+        return Collections.unmodifiableSet(byState.get(state));
+    }
+
+    // Cheap enough to check every day before walking anything
+    boolean hasDueBy(int day)
+    {
+        return (!byDueDay.isEmpty() && byDueDay.firstKey() <= day);
+    }
+
+    // Lazily walks every blueprint due on or before the given day
+    Iterator<BlueprintData> getDueBy(int day)
+    {
+        return new FlatIterator(byDueDay.headMap(day, true).values().iterator());
+    }
+
+    private static class Entry
+    {
+        BlueprintState state;
+        int dueDay;
+    }
+
+    private static class FlatIterator implements Iterator<BlueprintData>
+    {
+        private final Iterator<Set<BlueprintData>> sets;
+        private Iterator<BlueprintData> current = Collections.emptyIterator();
+
+        private FlatIterator(Iterator<Set<BlueprintData>> sets)
+        {
+            this.sets = sets;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while (!current.hasNext() && sets.hasNext())
+            {
+                current = sets.next().iterator();
+            }
+
+            return current.hasNext();
+        }
+
+        @Override
+        public BlueprintData next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+
+            return current.next();
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
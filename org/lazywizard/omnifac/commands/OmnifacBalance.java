@@ -16,6 +16,7 @@ import org.lazywizard.console.BaseCommand;
 import org.lazywizard.console.CommonStrings;
 import org.lazywizard.console.Console;
 import org.lazywizard.omnifac.OmniFacSettings;
+import org.lazywizard.omnifac.ProductionRules;
 
 /**
  *
@@ -26,27 +27,35 @@ public class OmnifacBalance implements BaseCommand
     private static final Logger Log = Logger.getLogger(OmnifacBalance.class);
 
     // ===== NEW =====
-    private static int getDaysToCreateNew(FleetMemberAPI member, float modifier)
+    private static float getBaseDays(FleetMemberAPI member)
     {
-        int fp = member.getFleetPointCost();
-        int size = member.getHullSpec().getHullSize().ordinal();
+        return ProductionRules.getShipBaseDays(member.getFleetPointCost(),
+                member.getHullSpec().getHullSize().ordinal());
+    }
 
-        return Math.round(Math.max(1f, Math.max((fp * size) / 2f, size * 2f) * modifier));
+    private static float getBaseDays(WeaponSpecAPI weapon)
+    {
+        return ProductionRules.getWeaponBaseDays(getCargoSpace(weapon), weapon.getTier());
+    }
+
+    private static int getDaysToCreateNew(FleetMemberAPI member, float modifier)
+    {
+        return ProductionRules.getDaysToCreate(getBaseDays(member), modifier);
     }
 
     private static int getDaysToAnalyzeNew(FleetMemberAPI member, float modifier)
     {
-        return Math.round(Math.max(1f, getDaysToCreateNew(member, 1f) * modifier));
+        return ProductionRules.getDaysToAnalyze(getBaseDays(member), modifier);
     }
 
     private static int getDaysToCreateNew(WeaponSpecAPI weapon, float modifier)
     {
-        return Math.round(Math.max(getCargoSpace(weapon) * getTierModifier(weapon) * modifier, 1f));
+        return ProductionRules.getDaysToCreate(getBaseDays(weapon), modifier);
     }
 
     private static int getDaysToAnalyzeNew(WeaponSpecAPI weapon, float modifier)
     {
-        return Math.round(Math.max(1f, getDaysToCreateNew(weapon, 1f) * modifier));
+        return ProductionRules.getDaysToAnalyze(getBaseDays(weapon), modifier);
     }
 
     // ===== OLD =====
@@ -91,23 +100,6 @@ public class OmnifacBalance implements BaseCommand
         }
     }
 
-    private static float getTierModifier(WeaponSpecAPI weapon)
-    {
-        switch (weapon.getTier())
-        {
-            case 0:
-                return 0.8f;
-            case 1:
-                return 1f;
-            case 2:
-                return 1.2f;
-            case 3:
-                return 1.5f;
-            default:
-                return 2f;
-        }
-    }
-
     private static List<FleetMemberAPI> generateFleetMembers()
     {
         final List<FleetMemberAPI> members = new ArrayList<>();
@@ -0,0 +1,83 @@
+package org.lazywizard.omnifac.commands;
+
+import java.util.List;
+import org.lazywizard.console.BaseCommand;
+import org.lazywizard.console.CommonStrings;
+import org.lazywizard.console.Console;
+import org.lazywizard.omnifac.FactoryBenchmark;
+import org.lazywizard.omnifac.OmniFac;
+
+public class OmnifacBench implements BaseCommand
+{
+    private static final int DEFAULT_OPS = 1000, MAX_OPS = 100000;
+
+    @Override
+    public CommandResult runCommand(String args, CommandContext context)
+    {
+        if (context != CommandContext.CAMPAIGN_MAP)
+        {
+            Console.showMessage(CommonStrings.ERROR_CAMPAIGN_ONLY);
+            return CommandResult.WRONG_CONTEXT;
+        }
+
+        final String[] tmp = args.trim().split(" +");
+        if (tmp.length > 2)
+        {
+            return CommandResult.BAD_SYNTAX;
+        }
+
+        final List<OmniFac> factories = OmniFac.getAllFactories();
+        if (factories.isEmpty())
+        {
+            Console.showMessage("There are no active Omnifactories in this save!");
+            return CommandResult.SUCCESS;
+        }
+
+        int numOps = DEFAULT_OPS, factoryNum = 1;
+        try
+        {
+            if (!tmp[0].isEmpty())
+            {
+                numOps = Integer.parseInt(tmp[0]);
+            }
+
+            if (tmp.length > 1)
+            {
+                factoryNum = Integer.parseInt(tmp[1]);
+            }
+        }
+        catch (NumberFormatException ex)
+        {
+            return CommandResult.BAD_SYNTAX;
+        }
+
+        if (numOps < 1 || numOps > MAX_OPS)
+        {
+            Console.showMessage("Error: iterations must be between 1 and " + MAX_OPS + "!");
+            return CommandResult.ERROR;
+        }
+
+        if (factoryNum < 1 || factoryNum > factories.size())
+        {
+            Console.showMessage("Error: there is no Omnifactory number " + factoryNum + "!");
+            return CommandResult.ERROR;
+        }
+
+        final OmniFac fac = factories.get(factoryNum - 1);
+        final StringBuilder output = new StringBuilder("Benchmarking " + fac
+                + " (on a copy, the save is not changed):\n");
+        for (FactoryBenchmark bench : new FactoryBenchmark[]
+        {
+            FactoryBenchmark.heartbeats(fac, numOps), FactoryBenchmark.ingestion(fac, numOps)
+        })
+        {
+            for (String line : bench.getReport())
+            {
+                output.append(" ").append(line).append("\n");
+            }
+        }
+
+        Console.showMessage(output.toString().trim());
+        return CommandResult.SUCCESS;
+    }
+}
@@ -0,0 +1,85 @@
+package org.lazywizard.omnifac.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.apache.log4j.Logger;
+import org.lazywizard.console.BaseCommand;
+import org.lazywizard.console.CommonStrings;
+import org.lazywizard.console.Console;
+import org.lazywizard.omnifac.LibraryFile;
+import org.lazywizard.omnifac.LibraryFile.ImportResult;
+import org.lazywizard.omnifac.OmniFac;
+
+public class OmnifacImport implements BaseCommand
+{
+    private static final Logger Log = Logger.getLogger(OmnifacImport.class);
+
+    @Override
+    public CommandResult runCommand(String args, CommandContext context)
+    {
+        if (context != CommandContext.CAMPAIGN_MAP)
+        {
+            Console.showMessage(CommonStrings.ERROR_CAMPAIGN_ONLY);
+            return CommandResult.WRONG_CONTEXT;
+        }
+
+        final String[] tmp = args.trim().split(" +");
+        if (tmp[0].isEmpty() || tmp.length > 2 || !tmp[0].matches("[\\w-]+"))
+        {
+            return CommandResult.BAD_SYNTAX;
+        }
+
+        final List<OmniFac> factories = OmniFac.getAllFactories();
+        if (factories.isEmpty())
+        {
+            Console.showMessage("There are no active Omnifactories in this save!");
+            return CommandResult.SUCCESS;
+        }
+
+        int factoryNum = 1;
+        if (tmp.length > 1)
+        {
+            try
+            {
+                factoryNum = Integer.parseInt(tmp[1]);
+            }
+            catch (NumberFormatException ex)
+            {
+                return CommandResult.BAD_SYNTAX;
+            }
+
+            if (factoryNum < 1 || factoryNum > factories.size())
+            {
+                Console.showMessage("Error: there is no Omnifactory number " + factoryNum + "!");
+                return CommandResult.ERROR;
+            }
+        }
+
+        final File file = LibraryFile.getFile(tmp[0]);
+        if (!file.isFile())
+        {
+            Console.showMessage("Error: no blueprint library found at " + file.getPath() + "!");
+            return CommandResult.ERROR;
+        }
+
+        final OmniFac fac = factories.get(factoryNum - 1);
+        final ImportResult result;
+        try
+        {
+            result = LibraryFile.open(file).importInto(fac);
+        }
+        catch (IOException ex)
+        {
+            Log.error("Failed to load blueprint library " + file.getPath(), ex);
+            Console.showMessage("Error: failed to load " + file.getPath() + "!");
+            return CommandResult.ERROR;
+        }
+
+        Console.showMessage(fac + " learned " + result.getImported() + " new blueprints ("
+                + result.getAlreadyKnown() + " already known, " + result.getUnresolved()
+                + " skipped as their mod isn't loaded, " + result.getRestricted()
+                + " skipped as restricted).");
+        return CommandResult.SUCCESS;
+    }
+}
@@ -0,0 +1,47 @@
+package org.lazywizard.omnifac.commands;
+
+import java.util.List;
+import org.lazywizard.console.BaseCommand;
+import org.lazywizard.console.CommonStrings;
+import org.lazywizard.console.Console;
+import org.lazywizard.omnifac.MemoryReport;
+import org.lazywizard.omnifac.OmniFac;
+
+public class OmnifacMemory implements BaseCommand
+{
+    @Override
+    public CommandResult runCommand(String args, CommandContext context)
+    {
+        if (context != CommandContext.CAMPAIGN_MAP)
+        {
+            Console.showMessage(CommonStrings.ERROR_CAMPAIGN_ONLY);
+            return CommandResult.WRONG_CONTEXT;
+        }
+
+        final List<OmniFac> factories = OmniFac.getAllFactories();
+        if (factories.isEmpty())
+        {
+            Console.showMessage("There are no active Omnifactories in this save!");
+            return CommandResult.SUCCESS;
+        }
+
+        long total = 0L;
+        final StringBuilder output = new StringBuilder("Estimated Omnifactory memory use"
+                + " (from object counts, not measured):\n");
+        for (int x = 0; x < factories.size(); x++)
+        {
+            final OmniFac fac = factories.get(x);
+            final MemoryReport report = MemoryReport.estimate(fac);
+            total += report.getTotalBytes();
+            output.append(" ").append(x + 1).append(". ").append(fac).append("\n");
+            for (String line : report.getReport())
+            {
+                output.append("   ").append(line).append("\n");
+            }
+        }
+
+        output.append("All factories: ").append(total / 1024L).append(" KB");
+        Console.showMessage(output.toString());
+        return CommandResult.SUCCESS;
+    }
+}
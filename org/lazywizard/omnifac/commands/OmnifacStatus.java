@@ -1,16 +1,26 @@
 package org.lazywizard.omnifac.commands;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import org.lazywizard.console.BaseCommand;
 import org.lazywizard.console.CommonStrings;
 import org.lazywizard.console.Console;
-import org.lazywizard.lazylib.CollectionUtils;
-import org.lazywizard.lazylib.StringUtils;
+import org.lazywizard.omnifac.CatalogSnapshot;
 import org.lazywizard.omnifac.OmniFac;
+import org.lazywizard.omnifac.OmniFac.BlueprintData;
+import org.lazywizard.omnifac.ProductionLedger;
+import org.lazywizard.omnifac.ProductionSimulator;
 
 public class OmnifacStatus implements BaseCommand
 {
+    private static final int MAX_SEARCH_RESULTS = 10;
+    private static final int FACTORIES_PER_PAGE = 20;
+    private static final int BLUEPRINTS_PER_PAGE = 120;
+    // The forecast runs on the game thread, so keep it to a few seconds at most
+    private static final int MAX_FORECAST_DAYS = 365 * 10;
+
     @Override
     public CommandResult runCommand(String args, CommandContext context)
     {
@@ -27,42 +37,383 @@ public class OmnifacStatus implements BaseCommand
             return CommandResult.SUCCESS;
         }
 
-        final boolean showDetailed = "detailed".equals(args);
-        final int lineLength = Console.getSettings().getMaxOutputLineLength() - 3;
+        if (args.startsWith("forecast"))
+        {
+            return showForecast(factories, args.substring("forecast".length()).trim());
+        }
+
+        if (args.startsWith("find"))
+        {
+            return showSearch(factories, args.substring("find".length()).trim());
+        }
+
+        if (args.startsWith("ledger"))
+        {
+            return showLedger(factories, args.substring("ledger".length()).trim());
+        }
+
+        // Anything else is a combination of "detailed", "factory #" and "page #"
+        final String[] tmp = args.trim().split(" +");
+        boolean showDetailed = false;
+        int factoryNum = 0, page = 1;
+        for (int x = 0; x < tmp.length; x++)
+        {
+            switch (tmp[x])
+            {
+                case "":
+                    break;
+                case "detailed":
+                    showDetailed = true;
+                    break;
+                case "factory":
+                case "page":
+                    if (x + 1 >= tmp.length)
+                    {
+                        return CommandResult.BAD_SYNTAX;
+                    }
+
+                    try
+                    {
+                        final int value = Integer.parseInt(tmp[x + 1]);
+                        if ("factory".equals(tmp[x]))
+                        {
+                            factoryNum = value;
+                        }
+                        else
+                        {
+                            page = value;
+                        }
+                    }
+                    catch (NumberFormatException ex)
+                    {
+                        return CommandResult.BAD_SYNTAX;
+                    }
+
+                    x++;
+                    break;
+                default:
+                    return CommandResult.BAD_SYNTAX;
+            }
+        }
+
+        if (factoryNum < 0 || factoryNum > factories.size())
+        {
+            Console.showMessage("Error: there is no Omnifactory number " + factoryNum + "!");
+            return CommandResult.ERROR;
+        }
+
+        if (showDetailed || factoryNum > 0)
+        {
+            return showBlueprints(factories.get(Math.max(1, factoryNum) - 1),
+                    Math.max(1, factoryNum), page);
+        }
+
+        return showSummary(factories, page);
+    }
+
+    private static int getNumPages(int numItems, int pageSize)
+    {
+        return Math.max(1, (numItems + pageSize - 1) / pageSize);
+    }
+
+    private static boolean isValidPage(int page, int numPages)
+    {
+        if (page < 1 || page > numPages)
+        {
+            Console.showMessage("Error: page must be between 1 and " + numPages + "!");
+            return false;
+        }
+
+        return true;
+    }
+
+    // Wraps one line at a time, so only the ids on the current page are read
+    private static void appendWrapped(StringBuilder output, List<String> ids,
+            int lineLength, String indent)
+    {
+        final StringBuilder line = new StringBuilder(lineLength);
+        for (String id : ids)
+        {
+            if (line.length() > 0 && line.length() + id.length() + 2 > lineLength)
+            {
+                output.append(indent).append(line).append(",\n");
+                line.setLength(0);
+            }
+
+            if (line.length() > 0)
+            {
+                line.append(", ");
+            }
+
+            line.append(id);
+        }
+
+        if (line.length() > 0)
+        {
+            output.append(indent).append(line).append("\n");
+        }
+    }
+
+    private static CommandResult showSummary(List<OmniFac> factories, int page)
+    {
+        final int numPages = getNumPages(factories.size(), FACTORIES_PER_PAGE);
+        if (!isValidPage(page, numPages))
+        {
+            return CommandResult.ERROR;
+        }
+
+        final int start = (page - 1) * FACTORIES_PER_PAGE,
+                end = Math.min(factories.size(), start + FACTORIES_PER_PAGE);
         final StringBuilder output = new StringBuilder("Active Omnifactories ("
                 + factories.size() + "):\n");
+        for (int x = start; x < end; x++)
+        {
+            final OmniFac fac = factories.get(x);
+            output.append(" ").append(x + 1).append(". ").append(fac).append(" (")
+                    .append(fac.getCatalog().size()).append(" blueprints)\n");
+
+            // Found by the validation pass when the save was loaded
+            final int numUnresolved = fac.getUnresolvedBlueprints().size();
+            if (numUnresolved > 0)
+            {
+                output.append("    Missing (was a mod disabled?): ").append(numUnresolved)
+                        .append(" blueprints\n");
+            }
+        }
+
+        final String name = OmnifacStatus.class.getSimpleName();
+        output.append("\nPage ").append(page).append(" of ").append(numPages);
+        if (page < numPages)
+        {
+            output.append(", use \"" + name + " page " + (page + 1) + "\" for the next page");
+        }
+
+        output.append(".\nUse \"" + name + " factory <#> [page <#>]\" to list a factory's"
+                + " blueprints, \"" + name + " forecast [days]\" to simulate future production, \""
+                + name + " ledger [entries]\" to show recent production, or \""
+                + name + " find <text>\" to search for a blueprint.");
+        Console.showMessage(output.toString());
+        return CommandResult.SUCCESS;
+    }
+
+    private static CommandResult showBlueprints(OmniFac fac, int factoryNum, int page)
+    {
+        // One consistent snapshot, its lists are already sorted
+        final CatalogSnapshot catalog = fac.getCatalog();
+        final String[] sections =
+        {
+            "Known ships", "Known wings", "Known weapons"
+        };
+        final List<List<String>> lists = new ArrayList<>(3);
+        lists.add(catalog.getShips());
+        lists.add(catalog.getWings());
+        lists.add(catalog.getWeapons());
+
+        final int numPages = getNumPages(catalog.size(), BLUEPRINTS_PER_PAGE);
+        if (!isValidPage(page, numPages))
+        {
+            return CommandResult.ERROR;
+        }
+
+        final int lineLength = Console.getSettings().getMaxOutputLineLength() - 4;
+        final int start = (page - 1) * BLUEPRINTS_PER_PAGE,
+                end = Math.min(catalog.size(), start + BLUEPRINTS_PER_PAGE);
+        final StringBuilder output = new StringBuilder(factoryNum + ". " + fac + ":\n");
+        int offset = 0;
+        for (int x = 0; x < sections.length; x++)
+        {
+            final List<String> ids = lists.get(x);
+            final int from = Math.max(start, offset) - offset,
+                    to = Math.min(end, offset + ids.size()) - offset;
+            if (from < to)
+            {
+                output.append("  ").append(sections[x]).append(" (").append(from + 1)
+                        .append("-").append(to).append(" of ").append(ids.size())
+                        .append("):\n");
+                appendWrapped(output, ids.subList(from, to), lineLength, "    ");
+            }
+
+            offset += ids.size();
+        }
+
+        final List<String> unresolved = fac.getUnresolvedBlueprints();
+        if (page == 1 && !unresolved.isEmpty())
+        {
+            output.append("  Missing (was a mod disabled?):\n");
+            appendWrapped(output, unresolved, lineLength, "    ");
+        }
+
+        output.append("\nPage ").append(page).append(" of ").append(numPages);
+        if (page < numPages)
+        {
+            output.append(", use \"" + OmnifacStatus.class.getSimpleName() + " factory "
+                    + factoryNum + " page " + (page + 1) + "\" for the next page");
+        }
+
+        output.append(".");
+        Console.showMessage(output.toString());
+        return CommandResult.SUCCESS;
+    }
+
+    private static CommandResult showForecast(List<OmniFac> factories, String args)
+    {
+        int days = 365;
+        if (!args.isEmpty())
+        {
+            try
+            {
+                days = Integer.parseInt(args);
+            }
+            catch (NumberFormatException ex)
+            {
+                Console.showMessage("Error: forecast length must be a number of days!");
+                return CommandResult.BAD_SYNTAX;
+            }
+
+            if (days < 1 || days > MAX_FORECAST_DAYS)
+            {
+                Console.showMessage("Error: forecast length must be between 1 and "
+                        + MAX_FORECAST_DAYS + " days!");
+                return CommandResult.ERROR;
+            }
+        }
+
+        final StringBuilder output = new StringBuilder("Forecast for the next "
+                + days + " days (stock bought monthly, requirements always met):\n");
+        for (OmniFac fac : factories)
+        {
+            output.append(" - ").append(fac).append("\n");
+            for (String line : ProductionSimulator.fromFactory(fac).run(days).getReport())
+            {
+                output.append("   ").append(line).append("\n");
+            }
+        }
+
+        Console.showMessage(output.toString());
+        return CommandResult.SUCCESS;
+    }
+
+    private static CommandResult showSearch(List<OmniFac> factories, String text)
+    {
+        if (text.isEmpty())
+        {
+            return CommandResult.BAD_SYNTAX;
+        }
+
+        final StringBuilder output = new StringBuilder("Blueprints matching \""
+                + text + "\":\n");
         for (OmniFac fac : factories)
         {
-            // TODO: Format this to look good
-            if (showDetailed)
+            output.append(" - ").append(fac).append("\n");
+            final List<BlueprintData> results = fac.search(text, MAX_SEARCH_RESULTS);
+            if (results.isEmpty())
             {
-                output.append(" - " + fac);
-                List<String> tmp = fac.getKnownShips();
-                Collections.sort(tmp);
-                output.append(StringUtils.indent(StringUtils.wrapString("\nKnown ships: "
-                        + CollectionUtils.implode(tmp), lineLength), "  "));
-                tmp = fac.getKnownWings();
-                Collections.sort(tmp);
-                output.append(StringUtils.indent(StringUtils.wrapString("\nKnown wings: "
-                        + CollectionUtils.implode(tmp), lineLength), "  "));
-                tmp = fac.getKnownWeapons();
-                Collections.sort(tmp);
-                output.append(StringUtils.indent(StringUtils.wrapString("\nKnown weapons: "
-                        + CollectionUtils.implode(tmp), lineLength), "  "));
+                output.append("   No matches\n");
+                continue;
             }
-            else
+
+            for (BlueprintData data : results)
             {
-                output.append(" - " + fac + "\n");
+                output.append("   ").append(data.getDisplayName()).append(" (")
+                        .append(data.getId()).append("): ")
+                        .append(describeState(fac, data)).append("\n");
             }
         }
 
-        if (!showDetailed)
+        Console.showMessage(output.toString());
+        return CommandResult.SUCCESS;
+    }
+
+    private static String describeState(OmniFac fac, BlueprintData data)
+    {
+        final int days = fac.getDaysUntilDue(data);
+        switch (data.getState())
         {
-            output.append("\nUse \"" + OmnifacStatus.class.getSimpleName()
-                    + " detailed\" to show more details.");
+            case ANALYZING:
+                return "analyzing, done in " + days + " days";
+            case PRODUCING:
+                return "producing (" + data.getTotal() + "/" + data.getLimit()
+                        + "), next unit in " + days + " days";
+            case AT_LIMIT:
+                return "at limit (" + data.getTotal() + "/" + data.getLimit()
+                        + "), checks again in " + days + " days";
+            case QUARANTINED:
+                return "quarantined, checks again in " + days + " days";
+            default:
+                return data.getState().toString();
+        }
+    }
+
+    private static CommandResult showLedger(List<OmniFac> factories, String args)
+    {
+        int numEntries = 10;
+        if (!args.isEmpty())
+        {
+            try
+            {
+                numEntries = Integer.parseInt(args);
+            }
+            catch (NumberFormatException ex)
+            {
+                Console.showMessage("Error: number of ledger entries must be a number!");
+                return CommandResult.BAD_SYNTAX;
+            }
+        }
+
+        final StringBuilder output = new StringBuilder("Recent production:\n");
+        for (OmniFac fac : factories)
+        {
+            final ProductionLedger ledger = fac.getLedger();
+            output.append(" - ").append(fac).append(" (").append(ledger.getTotalEntries())
+                    .append(" entries recorded, last ").append(ledger.size())
+                    .append(" kept)\n");
+
+            // Newest first
+            final int oldest = Math.max(0, ledger.size() - numEntries);
+            for (int x = ledger.size() - 1; x >= oldest; x--)
+            {
+                output.append("   Day ").append(ledger.getDay(x)).append(": ")
+                        .append(ledger.getType(x)).append(" ")
+                        .append(ledger.getBlueprintId(x)).append("\n");
+            }
+
+            final List<String> top = getTopProducers(ledger, 5);
+            if (!top.isEmpty())
+            {
+                output.append("   Most produced:\n");
+                for (String id : top)
+                {
+                    output.append("     ").append(id).append(": ")
+                            .append(ledger.getUnitsProduced(id)).append(" units, ")
+                            .append(ledger.getDaysBlocked(id)).append(" days at limit\n");
+                }
+            }
         }
 
         Console.showMessage(output.toString());
         return CommandResult.SUCCESS;
     }
+
+    private static List<String> getTopProducers(final ProductionLedger ledger, int max)
+    {
+        final List<String> ids = new ArrayList<>();
+        for (String id : ledger.getTrackedBlueprints())
+        {
+            if (ledger.getUnitsProduced(id) > 0)
+            {
+                ids.add(id);
+            }
+        }
+
+        Collections.sort(ids, new Comparator<String>()
+        {
+            @Override
+            public int compare(String o1, String o2)
+            {
+                return Integer.compare(ledger.getUnitsProduced(o2), ledger.getUnitsProduced(o1));
+            }
+        });
+
+        return (ids.size() > max ? ids.subList(0, max) : ids);
+    }
 }